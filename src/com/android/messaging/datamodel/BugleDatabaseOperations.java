@@ -1267,7 +1267,6 @@ public class BugleDatabaseOperations {
             final DatabaseWrapper db, final String conversationId) {
         Assert.isNotMainThread();
         final SQLiteStatement query = db.getStatementInTransaction(
-                DatabaseWrapper.INDEX_QUERY_CONVERSATIONS_LATEST_MESSAGE,
                 QUERY_CONVERSATIONS_LATEST_MESSAGE_SQL);
         query.clearBindings();
         query.bindString(1, conversationId);
@@ -1289,7 +1288,6 @@ public class BugleDatabaseOperations {
             final DatabaseWrapper db, final String conversationId) {
         Assert.isNotMainThread();
         final SQLiteStatement query = db.getStatementInTransaction(
-                DatabaseWrapper.INDEX_QUERY_MESSAGES_LATEST_MESSAGE,
                 QUERY_MESSAGES_LATEST_MESSAGE_SQL);
         query.clearBindings();
         query.bindString(1, conversationId);
@@ -209,6 +209,7 @@ public class DataModelImpl extends DataModel {
         createConnectivityUtilForEachActiveSubscription();
 
         FixupMessageStatusOnStartupAction.fixupMessageStatus();
+        mActionService.restoreScheduledActions();
         ProcessPendingMessagesAction.processFirstPendingMessage();
         SyncManager.immediateSync();
 
@@ -19,6 +19,7 @@ package com.android.messaging.datamodel;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -38,6 +39,15 @@ import com.android.messaging.util.LogUtil;
 public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "bugle_db";
 
+    // Pages the WAL may grow to before a commit checkpoints it. This is large enough for sync
+    // batches to commit without checkpointing; instead the WAL is checkpointed once a sync
+    // is done, see DatabaseWrapper#checkpoint.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    // Prepared statements kept per connection. This covers the statements cached by
+    // DatabaseWrapper, so that those are not prepared again when they are executed.
+    private static final int MAX_SQL_CACHE_SIZE = 50;
+
     private static int getDatabaseVersion(final Context context) {
         return Integer.parseInt(context.getResources().getString(R.string.database_version));
     }
@@ -56,6 +66,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     public static final String PARTS_TABLE = "parts";
     public static final String PARTICIPANTS_TABLE = "participants";
     public static final String CONVERSATION_PARTICIPANTS_TABLE = "conversation_participants";
+    public static final String SCHEDULED_ACTIONS_TABLE = "scheduled_actions";
+    public static final String MESSAGE_SEARCH_TABLE = "message_search";
 
     // Views
     static final String DRAFT_PARTS_VIEW = "draft_parts_view";
@@ -292,6 +304,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     + MessageColumns.STATUS + ", "
                     + MessageColumns.SEEN + ")";
 
+    // Index for draining pending sends and downloads : by self participant (subscription),
+    // status, received timestamp.
+    static final String MESSAGES_TABLE_PENDING_INDEX_SQL =
+            "CREATE INDEX index_" + MESSAGES_TABLE + "_pending ON " +  MESSAGES_TABLE + "("
+                    + MessageColumns.SELF_PARTICIPANT_ID + ", "
+                    + MessageColumns.STATUS + ", "
+                    + MessageColumns.RECEIVED_TIMESTAMP + ")";
+
     // Parts table schema
     // A part may contain text or a media url, but not both.
     public static class PartColumns implements BaseColumns {
@@ -360,6 +380,74 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             + PartColumns.MESSAGE_ID + " = NEW." + MessageColumns._ID
             + "; END;";
 
+    // Message search full-text index schema. Each row is keyed by the docid of the part it
+    // indexes, and also carries the conversation name so that searches match the name too.
+    public static class MessageSearchColumns {
+        /* text of the indexed part */
+        public static final String TEXT = "text";
+
+        /* name of the conversation of the indexed part */
+        public static final String CONVERSATION_NAME = "conversation_name";
+    }
+
+    // Message search full-text index SQL. FTS4 is used as FTS5 is not available in the
+    // platform SQLite.
+    static final String CREATE_MESSAGE_SEARCH_TABLE_SQL =
+            "CREATE VIRTUAL TABLE " + MESSAGE_SEARCH_TABLE + " USING fts4("
+                    + MessageSearchColumns.TEXT + ", "
+                    + MessageSearchColumns.CONVERSATION_NAME + ", "
+                    + "tokenize=unicode61);";
+
+    // Index the text of existing parts, when the search index is added to a populated database
+    static final String POPULATE_MESSAGE_SEARCH_TABLE_SQL =
+            "INSERT INTO " + MESSAGE_SEARCH_TABLE + "(docid, " + MessageSearchColumns.TEXT + ", "
+            + MessageSearchColumns.CONVERSATION_NAME + ") SELECT "
+            + PARTS_TABLE + "." + PartColumns._ID + ", " + PARTS_TABLE + "." + PartColumns.TEXT
+            + ", " + CONVERSATIONS_TABLE + "." + ConversationColumns.NAME
+            + " FROM " + PARTS_TABLE + " LEFT JOIN " + CONVERSATIONS_TABLE + " ON "
+            + PARTS_TABLE + "." + PartColumns.CONVERSATION_ID + "=" + CONVERSATIONS_TABLE + "."
+            + ConversationColumns._ID
+            + " WHERE " + PARTS_TABLE + "." + PartColumns.TEXT + " IS NOT NULL;";
+
+    private static final String INSERT_MESSAGE_SEARCH_ROW_SQL =
+            " INSERT INTO " + MESSAGE_SEARCH_TABLE + "(docid, " + MessageSearchColumns.TEXT + ", "
+            + MessageSearchColumns.CONVERSATION_NAME + ") SELECT NEW." + PartColumns._ID
+            + ", NEW." + PartColumns.TEXT + ", (SELECT " + ConversationColumns.NAME + " FROM "
+            + CONVERSATIONS_TABLE + " WHERE " + CONVERSATIONS_TABLE + "." + ConversationColumns._ID
+            + "=NEW." + PartColumns.CONVERSATION_ID + ") WHERE NEW." + PartColumns.TEXT
+            + " IS NOT NULL;";
+
+    // Triggers keeping the message search index in sync with the text of parts. Parts without
+    // text (e.g. attachments) are not indexed.
+    static final String CREATE_PARTS_SEARCH_INSERT_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_TABLE + "_search_insert_TRIGGER AFTER INSERT ON "
+            + PARTS_TABLE + " FOR EACH ROW WHEN NEW." + PartColumns.TEXT + " IS NOT NULL BEGIN"
+            + INSERT_MESSAGE_SEARCH_ROW_SQL
+            + " END;";
+
+    static final String CREATE_PARTS_SEARCH_UPDATE_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_TABLE + "_search_update_TRIGGER AFTER UPDATE OF "
+            + PartColumns.TEXT + " ON " + PARTS_TABLE + " FOR EACH ROW BEGIN"
+            + " DELETE FROM " + MESSAGE_SEARCH_TABLE + " WHERE docid=OLD." + PartColumns._ID + ";"
+            + INSERT_MESSAGE_SEARCH_ROW_SQL
+            + " END;";
+
+    // Also fires for parts deleted by cascade from their message or conversation
+    static final String CREATE_PARTS_SEARCH_DELETE_TRIGGER_SQL =
+            "CREATE TRIGGER " + PARTS_TABLE + "_search_delete_TRIGGER AFTER DELETE ON "
+            + PARTS_TABLE + " FOR EACH ROW BEGIN"
+            + " DELETE FROM " + MESSAGE_SEARCH_TABLE + " WHERE docid=OLD." + PartColumns._ID + ";"
+            + " END;";
+
+    static final String CREATE_CONVERSATIONS_SEARCH_TRIGGER_SQL =
+            "CREATE TRIGGER " + CONVERSATIONS_TABLE + "_search_TRIGGER AFTER UPDATE OF "
+            + ConversationColumns.NAME + " ON " + CONVERSATIONS_TABLE + " FOR EACH ROW BEGIN"
+            + " UPDATE " + MESSAGE_SEARCH_TABLE + " SET " + MessageSearchColumns.CONVERSATION_NAME
+            + "=NEW." + ConversationColumns.NAME + " WHERE docid IN (SELECT " + PartColumns._ID
+            + " FROM " + PARTS_TABLE + " WHERE " + PartColumns.CONVERSATION_ID + "=NEW."
+            + ConversationColumns._ID + ");"
+            + " END;";
+
     // Primary sort index for parts table : by message_id
     private static final String PARTS_TABLE_MESSAGE_INDEX_SQL =
             "CREATE INDEX index_" + PARTS_TABLE + "_message_id ON " + PARTS_TABLE + "("
@@ -486,6 +574,40 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     + " ON " +  CONVERSATION_PARTICIPANTS_TABLE
                     + "(" + ConversationParticipantsColumns.CONVERSATION_ID + ")";
 
+    // Scheduled actions table schema - journal of actions waiting for a delayed start
+    public static class ScheduledActionColumns implements BaseColumns {
+        /* request code used to collapse requests, only the latest one per code is kept */
+        public static final String REQUEST_CODE = "request_code";
+
+        /* elapsed realtime (in millis) at which the action is due to start */
+        public static final String DUE_TIME = "due_time";
+
+        /* boot count of the device when the due time was recorded */
+        public static final String BOOT_COUNT = "boot_count";
+
+        /* class name of the action */
+        public static final String ACTION_CLASS = "action_class";
+
+        /* the action parameters, encoded as JSON */
+        public static final String PARAMETERS = "parameters";
+    }
+
+    // Scheduled actions table SQL
+    static final String CREATE_SCHEDULED_ACTIONS_TABLE_SQL =
+            "CREATE TABLE " + SCHEDULED_ACTIONS_TABLE + "("
+                    + ScheduledActionColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + ScheduledActionColumns.REQUEST_CODE + " INT NOT NULL,"
+                    + ScheduledActionColumns.DUE_TIME + " INT NOT NULL,"
+                    + ScheduledActionColumns.BOOT_COUNT + " INT NOT NULL,"
+                    + ScheduledActionColumns.ACTION_CLASS + " TEXT NOT NULL,"
+                    + ScheduledActionColumns.PARAMETERS + " TEXT NOT NULL,"
+                    + "UNIQUE (" + ScheduledActionColumns.REQUEST_CODE + ") ON CONFLICT REPLACE);";
+
+    // Scheduled actions are looked up by earliest due time
+    static final String SCHEDULED_ACTIONS_TABLE_DUE_TIME_INDEX_SQL =
+            "CREATE INDEX index_" + SCHEDULED_ACTIONS_TABLE + "_" + ScheduledActionColumns.DUE_TIME
+                    + " ON " + SCHEDULED_ACTIONS_TABLE + "(" + ScheduledActionColumns.DUE_TIME + ")";
+
     // View for getting parts which are for draft messages.
     static final String DRAFT_PARTS_VIEW_SQL = "CREATE VIEW " +
             DRAFT_PARTS_VIEW + " AS SELECT "
@@ -519,6 +641,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         CREATE_PARTS_TABLE_SQL,
         CREATE_PARTICIPANTS_TABLE_SQL,
         CREATE_CONVERSATION_PARTICIPANTS_TABLE_SQL,
+        CREATE_SCHEDULED_ACTIONS_TABLE_SQL,
+        CREATE_MESSAGE_SEARCH_TABLE_SQL,
     };
 
     // List of all our indices
@@ -528,19 +652,24 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         CONVERSATIONS_TABLE_SORT_TIMESTAMP_INDEX_SQL,
         MESSAGES_TABLE_SORT_INDEX_SQL,
         MESSAGES_TABLE_STATUS_SEEN_INDEX_SQL,
+        MESSAGES_TABLE_PENDING_INDEX_SQL,
         PARTS_TABLE_MESSAGE_INDEX_SQL,
         CONVERSATION_PARTICIPANTS_TABLE_CONVERSATION_ID_INDEX_SQL,
+        SCHEDULED_ACTIONS_TABLE_DUE_TIME_INDEX_SQL,
     };
 
     // List of all our SQL triggers
     private static final String[] CREATE_TRIGGER_SQLS = new String[] {
             CREATE_PARTS_TRIGGER_SQL,
             CREATE_MESSAGES_TRIGGER_SQL,
+            CREATE_PARTS_SEARCH_INSERT_TRIGGER_SQL,
+            CREATE_PARTS_SEARCH_UPDATE_TRIGGER_SQL,
+            CREATE_PARTS_SEARCH_DELETE_TRIGGER_SQL,
+            CREATE_CONVERSATIONS_SEARCH_TRIGGER_SQL,
     };
 
     // List of all our views
     private static final String[] CREATE_VIEW_SQLS = new String[] {
-        ConversationListItemData.getConversationListViewSql(),
         ConversationImagePartsView.getCreateSql(),
         DRAFT_PARTS_VIEW_SQL,
     };
@@ -577,6 +706,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     private DatabaseHelper(final Context context) {
         super(context, DATABASE_NAME, null, getDatabaseVersion(context), null);
         mApplicationContext = context;
+        // With write-ahead logging, reads on other threads use the pool of reader connections
+        // and are not blocked by write transactions, e.g. of the message sync
+        setWriteAheadLoggingEnabled(true);
     }
 
     /**
@@ -649,6 +781,25 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Drop, recreate and fill the conversation list table from the conversations, messages
+     * and participants tables.
+     */
+    static void rebuildConversationListTable(final SQLiteDatabase db) {
+        for (final String sql : ConversationListItemData.getConversationListTableSqls()) {
+            db.execSQL(sql);
+        }
+    }
+
+    /**
+     * Create the triggers keeping the conversation list table up to date.
+     */
+    static void createConversationListTriggers(final SQLiteDatabase db) {
+        for (final String sql : ConversationListItemData.getConversationListTriggerSqls()) {
+            db.execSQL(sql);
+        }
+    }
+
     /**
      * Drops all user-defined tables from the given database.
      */
@@ -768,9 +919,12 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             db.execSQL(sql);
         }
 
+        rebuildConversationListTable(db);
+
         for (final String sql : CREATE_TRIGGER_SQLS) {
             db.execSQL(sql);
         }
+        createConversationListTriggers(db);
 
         // Enable foreign key constraints
         db.execSQL("PRAGMA foreign_keys=ON;");
@@ -782,6 +936,14 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         DataModel.get().onCreateTables(db);
     }
 
+    @Override
+    public void onConfigure(final SQLiteDatabase db) {
+        db.setMaxSqlCacheSize(MAX_SQL_CACHE_SIZE);
+        // Checkpoints are run by the connection that commits, which is the primary one
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES,
+                null);
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         createDatabase(db);
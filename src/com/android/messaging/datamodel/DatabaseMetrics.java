@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics of the Bugle database since the process started. Latency of content provider
+ * reads is kept separately for reads made while a message sync is running, to show whether
+ * UI reads are held up by sync write transactions. WAL checkpoints are counted as well.
+ */
+public class DatabaseMetrics {
+    // Bucket 0 holds 0ms samples, bucket i holds samples in [2^(i-1), 2^i) ms and the last
+    // bucket everything from 2^(BUCKET_COUNT-2) ms (~16s) up
+    private static final int BUCKET_COUNT = 16;
+    private static final int SLOT_COUNT = BUCKET_COUNT + 2;
+    private static final int SLOT_TOTAL = BUCKET_COUNT;
+    private static final int SLOT_MAX = BUCKET_COUNT + 1;
+
+    private static final AtomicLongArray sIdleReads = new AtomicLongArray(SLOT_COUNT);
+    private static final AtomicLongArray sSyncReads = new AtomicLongArray(SLOT_COUNT);
+
+    private static final AtomicLong sCheckpoints = new AtomicLong();
+    private static final AtomicLong sCheckpointsBusy = new AtomicLong();
+    private static final AtomicLong sCheckpointMillis = new AtomicLong();
+    private static volatile long sLastCheckpointLogPages;
+    private static volatile long sLastCheckpointedPages;
+
+    private DatabaseMetrics() {
+    }
+
+    /**
+     * Record a content provider read, including filling the first cursor window
+     * @param duringSync - true if a message sync was running when the read started
+     */
+    static void recordRead(final long elapsedMillis, final boolean duringSync) {
+        if (elapsedMillis < 0) {
+            return;
+        }
+        final AtomicLongArray histogram = duringSync ? sSyncReads : sIdleReads;
+        histogram.incrementAndGet(
+                Math.min(64 - Long.numberOfLeadingZeros(elapsedMillis), BUCKET_COUNT - 1));
+        histogram.addAndGet(SLOT_TOTAL, elapsedMillis);
+        long max = histogram.get(SLOT_MAX);
+        while (elapsedMillis > max && !histogram.compareAndSet(SLOT_MAX, max, elapsedMillis)) {
+            max = histogram.get(SLOT_MAX);
+        }
+    }
+
+    /**
+     * Record a WAL checkpoint
+     * @param busy - true if the checkpoint could not complete, e.g. because of readers
+     * @param logPages - pages in the WAL
+     * @param checkpointedPages - pages of the WAL copied back to the database
+     */
+    static void recordCheckpoint(final long elapsedMillis, final boolean busy,
+            final long logPages, final long checkpointedPages) {
+        sCheckpoints.incrementAndGet();
+        if (busy) {
+            sCheckpointsBusy.incrementAndGet();
+        }
+        sCheckpointMillis.addAndGet(elapsedMillis);
+        sLastCheckpointLogPages = logPages;
+        sLastCheckpointedPages = checkpointedPages;
+    }
+
+    /**
+     * Dump the statistics in a human readable form. Percentiles are bucket upper bounds.
+     */
+    public static void dump(final PrintWriter writer) {
+        writer.println("Database reads (ms):");
+        dumpHistogram(writer, "idle", sIdleReads);
+        dumpHistogram(writer, "during_sync", sSyncReads);
+        final long checkpoints = sCheckpoints.get();
+        writer.println("WAL checkpoints: count=" + checkpoints
+                + " busy=" + sCheckpointsBusy.get()
+                + " mean_ms=" + (checkpoints == 0 ? 0 : sCheckpointMillis.get() / checkpoints)
+                + " last_log_pages=" + sLastCheckpointLogPages
+                + " last_checkpointed_pages=" + sLastCheckpointedPages);
+    }
+
+    private static void dumpHistogram(final PrintWriter writer, final String name,
+            final AtomicLongArray histogram) {
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            buckets[bucket] = histogram.get(bucket);
+            count += buckets[bucket];
+        }
+        if (count == 0) {
+            writer.println("  " + name + ": count=0");
+            return;
+        }
+        writer.println("  " + name + ": count=" + count
+                + " mean=" + histogram.get(SLOT_TOTAL) / count
+                + " p50<=" + getPercentile(buckets, count, 50)
+                + " p90<=" + getPercentile(buckets, count, 90)
+                + " p99<=" + getPercentile(buckets, count, 99)
+                + " max=" + histogram.get(SLOT_MAX));
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile of the samples
+     */
+    private static long getPercentile(final long[] buckets, final long count,
+            final int percentile) {
+        final long target = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= target) {
+                return bucket == 0 ? 0 : (1L << bucket) - 1;
+            }
+        }
+        return (1L << (BUCKET_COUNT - 1)) - 1;
+    }
+}
@@ -48,10 +48,25 @@ public class DatabaseUpgradeHelper {
         if (currentVersion < 2) {
             currentVersion = upgradeToVersion2(db);
         }
+        if (currentVersion < 3) {
+            currentVersion = upgradeToVersion3(db);
+        }
+        if (currentVersion < 4) {
+            currentVersion = upgradeToVersion4(db);
+        }
+        if (currentVersion < 5) {
+            currentVersion = upgradeToVersion5(db);
+        }
+        if (currentVersion < 6) {
+            currentVersion = upgradeToVersion6(db);
+        }
         // Rebuild all the views
         final Context context = Factory.get().getApplicationContext();
         DatabaseHelper.dropAllViews(db);
         DatabaseHelper.rebuildAllViews(new DatabaseWrapper(context, db));
+        // The conversation list table is filled from the same select as the old view, so it
+        // is rebuilt like the views in case any of its source tables changed
+        DatabaseHelper.rebuildConversationListTable(db);
         // Finally, check if we have arrived at the final version.
         checkAndUpdateVersionAtReleaseEnd(currentVersion, Integer.MAX_VALUE, newVersion);
     }
@@ -63,6 +78,37 @@ public class DatabaseUpgradeHelper {
         return 2;
     }
 
+    private int upgradeToVersion3(final SQLiteDatabase db) {
+        db.execSQL(DatabaseHelper.CREATE_SCHEDULED_ACTIONS_TABLE_SQL);
+        db.execSQL(DatabaseHelper.SCHEDULED_ACTIONS_TABLE_DUE_TIME_INDEX_SQL);
+        LogUtil.i(TAG, "Upgraded database to version 3");
+        return 3;
+    }
+
+    private int upgradeToVersion4(final SQLiteDatabase db) {
+        db.execSQL(DatabaseHelper.MESSAGES_TABLE_PENDING_INDEX_SQL);
+        LogUtil.i(TAG, "Upgraded database to version 4");
+        return 4;
+    }
+
+    private int upgradeToVersion5(final SQLiteDatabase db) {
+        db.execSQL(DatabaseHelper.CREATE_MESSAGE_SEARCH_TABLE_SQL);
+        db.execSQL(DatabaseHelper.POPULATE_MESSAGE_SEARCH_TABLE_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_SEARCH_INSERT_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_SEARCH_UPDATE_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_PARTS_SEARCH_DELETE_TRIGGER_SQL);
+        db.execSQL(DatabaseHelper.CREATE_CONVERSATIONS_SEARCH_TRIGGER_SQL);
+        LogUtil.i(TAG, "Upgraded database to version 5");
+        return 5;
+    }
+
+    private int upgradeToVersion6(final SQLiteDatabase db) {
+        // The table itself is created when the views are rebuilt
+        DatabaseHelper.createConversationListTriggers(db);
+        LogUtil.i(TAG, "Upgraded database to version 6");
+        return 6;
+    }
+
     /**
      * Checks db version correctness at the end of each milestone release. If target database
      * version lies beyond the version range that the current release may handle, we snap the
@@ -21,17 +21,22 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteFullException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.database.sqlite.SQLiteStatement;
-import android.util.SparseArray;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.LruCache;
 
 import com.android.messaging.R;
 import com.android.messaging.util.Assert;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.UiUtils;
 
+import java.io.PrintWriter;
 import java.util.Locale;
 import java.util.Stack;
 
@@ -43,12 +48,12 @@ public class DatabaseWrapper {
     private final boolean mLog;
     private static final int sTimingThreshold = 50;        // in milliseconds
 
-    public static final int INDEX_INSERT_MESSAGE_PART = 0;
-    public static final int INDEX_INSERT_MESSAGE = 1;
-    public static final int INDEX_QUERY_CONVERSATIONS_LATEST_MESSAGE = 2;
-    public static final int INDEX_QUERY_MESSAGES_LATEST_MESSAGE = 3;
+    // Enough for the statements of a sync batch or a message send, including the updates of
+    // the few column sets written per table
+    private static final int STATEMENT_CACHE_SIZE = 32;
 
-    private final SparseArray<SQLiteStatement> mCompiledStatements;
+    // Compiled statements keyed by SQL, least recently used ones are closed when evicted
+    private final LruCache<String, SQLiteStatement> mStatementCache;
 
     static class TransactionData {
         long time;
@@ -69,21 +74,107 @@ public class DatabaseWrapper {
         mLog = LogUtil.isLoggable(LogUtil.BUGLE_DATABASE_PERF_TAG, LogUtil.VERBOSE);
         mDatabase = db;
         mContext = context;
-        mCompiledStatements = new SparseArray<>();
+        mStatementCache = new LruCache<String, SQLiteStatement>(STATEMENT_CACHE_SIZE) {
+            @Override
+            protected void entryRemoved(final boolean evicted, final String sql,
+                    final SQLiteStatement oldValue, final SQLiteStatement newValue) {
+                oldValue.close();
+            }
+        };
     }
 
-    public SQLiteStatement getStatementInTransaction(final int index, final String statement) {
+    /**
+     * Get the compiled statement for some SQL, compiling it only if it is not among the most
+     * recently used statements. Statements are shared, so callers need to be in a transaction
+     * to serialize access and must be done with the statement before getting another one.
+     */
+    public SQLiteStatement getStatementInTransaction(final String sql) {
         // Use transaction to serialize access to statements
         Assert.isTrue(mDatabase.inTransaction());
-        SQLiteStatement compiled = mCompiledStatements.get(index);
+        SQLiteStatement compiled = mStatementCache.get(sql);
         if (compiled == null) {
-            compiled = mDatabase.compileStatement(statement);
-            Assert.isTrue(compiled.toString().contains(statement.trim()));
-            mCompiledStatements.put(index, compiled);
+            compiled = mDatabase.compileStatement(sql);
+            mStatementCache.put(sql, compiled);
         }
         return compiled;
     }
 
+    /**
+     * Get the cached statement for some SQL with all of its arguments bound
+     */
+    private SQLiteStatement getStatementInTransaction(final String sql, final Object[] bindArgs) {
+        final SQLiteStatement statement = getStatementInTransaction(sql);
+        statement.clearBindings();
+        for (int i = 0; i < bindArgs.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+        }
+        return statement;
+    }
+
+    /**
+     * Build the same UPDATE statement as {@link SQLiteDatabase#update} so that it can be cached
+     */
+    private SQLiteStatement getUpdateStatementInTransaction(final String table,
+            final ContentValues values, final String whereClause, final String[] whereArgs) {
+        final StringBuilder sql = new StringBuilder(120);
+        sql.append("UPDATE ").append(table).append(" SET ");
+        final int argCount = values.size() + (whereArgs == null ? 0 : whereArgs.length);
+        final Object[] bindArgs = new Object[argCount];
+        int i = 0;
+        for (final String column : values.keySet()) {
+            sql.append(i > 0 ? "," : "").append(column).append("=?");
+            bindArgs[i++] = values.get(column);
+        }
+        if (whereArgs != null) {
+            for (final String arg : whereArgs) {
+                bindArgs[i++] = arg;
+            }
+        }
+        if (!TextUtils.isEmpty(whereClause)) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+        return getStatementInTransaction(sql.toString(), bindArgs);
+    }
+
+    /**
+     * Build the same INSERT statement as {@link SQLiteDatabase#insert} so that it can be cached
+     */
+    private SQLiteStatement getInsertStatementInTransaction(final String table,
+            final ContentValues values) {
+        final StringBuilder sql = new StringBuilder(120);
+        sql.append("INSERT INTO ").append(table).append('(');
+        final Object[] bindArgs = new Object[values.size()];
+        int i = 0;
+        for (final String column : values.keySet()) {
+            sql.append(i > 0 ? "," : "").append(column);
+            bindArgs[i++] = values.get(column);
+        }
+        sql.append(") VALUES (");
+        for (i = 0; i < bindArgs.length; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        sql.append(')');
+        return getStatementInTransaction(sql.toString(), bindArgs);
+    }
+
+    private SQLiteStatement getDeleteStatementInTransaction(final String table,
+            final String whereClause, final String[] whereArgs) {
+        final String sql = "DELETE FROM " + table
+                + (TextUtils.isEmpty(whereClause) ? "" : " WHERE " + whereClause);
+        return getStatementInTransaction(sql, whereArgs == null ? new Object[0] : whereArgs);
+    }
+
+    /**
+     * Dump the hit rate of the statement cache in a human readable form
+     */
+    public void dumpStatementCache(final PrintWriter writer) {
+        writer.println("Statement cache: size=" + mStatementCache.size()
+                + " max_size=" + mStatementCache.maxSize()
+                + " hits=" + mStatementCache.hitCount()
+                + " misses=" + mStatementCache.missCount()
+                + " evictions=" + mStatementCache.evictionCount());
+    }
+
     private static void printTiming(final long t1, final String msg) {
         final int transactionDepth = sTransactionDepth.get().size();
         final long t2 = System.currentTimeMillis();
@@ -258,7 +349,12 @@ public class DatabaseWrapper {
         }
         int count = 0;
         try {
-            count = mDatabase.update(table, values, selection, selectionArgs);
+            if (mDatabase.inTransaction() && values.size() > 0) {
+                count = getUpdateStatementInTransaction(table, values, selection,
+                        selectionArgs).executeUpdateDelete();
+            } else {
+                count = mDatabase.update(table, values, selection, selectionArgs);
+            }
         } catch (SQLiteFullException ex) {
             LogUtil.e(TAG, "Database full, unable to update", ex);
             UiUtils.showToastAtBottom(R.string.db_full);
@@ -277,7 +373,12 @@ public class DatabaseWrapper {
         }
         int count = 0;
         try {
-            count = mDatabase.delete(table, whereClause, whereArgs);
+            if (mDatabase.inTransaction()) {
+                count = getDeleteStatementInTransaction(table, whereClause,
+                        whereArgs).executeUpdateDelete();
+            } else {
+                count = mDatabase.delete(table, whereClause, whereArgs);
+            }
         } catch (SQLiteFullException ex) {
             LogUtil.e(TAG, "Database full, unable to delete", ex);
             UiUtils.showToastAtBottom(R.string.db_full);
@@ -298,10 +399,17 @@ public class DatabaseWrapper {
         }
         long rowId = -1;
         try {
-            rowId = mDatabase.insert(table, nullColumnHack, values);
+            if (mDatabase.inTransaction() && values != null && values.size() > 0) {
+                rowId = getInsertStatementInTransaction(table, values).executeInsert();
+            } else {
+                rowId = mDatabase.insert(table, nullColumnHack, values);
+            }
         } catch (SQLiteFullException ex) {
             LogUtil.e(TAG, "Database full, unable to insert", ex);
             UiUtils.showToastAtBottom(R.string.db_full);
+        } catch (SQLException ex) {
+            // Like SQLiteDatabase#insert, report failures by returning -1
+            LogUtil.e(TAG, "Error inserting " + values, ex);
         }
         if (mLog) {
             printTiming(t1, String.format(Locale.US, "insert to %s", table));
@@ -385,6 +493,23 @@ public class DatabaseWrapper {
         return rowsUpdated;
     }
 
+    /**
+     * Copy the WAL back into the database without waiting for readers, e.g. after a sync has
+     * written many pages. Must not be called within a transaction.
+     */
+    public void checkpoint() {
+        Assert.isFalse(mDatabase.inTransaction());
+        final long t1 = SystemClock.elapsedRealtime();
+        try (Cursor cursor = mDatabase.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null)) {
+            if (cursor.moveToFirst()) {
+                DatabaseMetrics.recordCheckpoint(SystemClock.elapsedRealtime() - t1,
+                        cursor.getInt(0) != 0, cursor.getLong(1), cursor.getLong(2));
+            }
+        } catch (final SQLiteException ex) {
+            LogUtil.w(TAG, "Unable to checkpoint database", ex);
+        }
+    }
+
     public SQLiteDatabase getDatabase() {
         return mDatabase;
     }
@@ -22,9 +22,11 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
@@ -32,7 +34,12 @@ import androidx.annotation.NonNull;
 import com.android.messaging.Factory;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ConversationParticipantsColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
+import com.android.messaging.datamodel.DatabaseHelper.MessageSearchColumns;
+import com.android.messaging.datamodel.DatabaseHelper.PartColumns;
 import com.android.messaging.datamodel.DatabaseHelper.ParticipantColumns;
+import com.android.messaging.datamodel.action.ActionTimings;
+import com.android.messaging.datamodel.action.SyncMetrics;
 import com.android.messaging.datamodel.data.ConversationListItemData;
 import com.android.messaging.datamodel.data.ConversationMessageData;
 import com.android.messaging.datamodel.data.MessageData;
@@ -45,6 +52,7 @@ import com.android.messaging.widget.WidgetConversationProvider;
 import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
+import java.util.Locale;
 
 /**
  * A centralized provider for Uris exposed by Bugle.
@@ -70,6 +78,16 @@ public class MessagingContentProvider extends ContentProvider {
     public static final Uri CONVERSATION_MESSAGES_URI = Uri.parse(CONTENT_AUTHORITY +
             MESSAGES_QUERY + "/conversation");
 
+    /**
+     * Optional query parameters of the conversation messages uri restricting it to a window of
+     * the newest messages: either the number of messages, or the received timestamp and id of
+     * the oldest message in the window
+     */
+    private static final String CONVERSATION_MESSAGES_PARAMETER_LIMIT = "limit";
+    private static final String CONVERSATION_MESSAGES_PARAMETER_ANCHOR_TIMESTAMP =
+            "anchor_timestamp";
+    private static final String CONVERSATION_MESSAGES_PARAMETER_ANCHOR_ID = "anchor_id";
+
     // Conversation participants query
     private static final String PARTICIPANTS_QUERY = "participants";
 
@@ -93,6 +111,86 @@ public class MessagingContentProvider extends ContentProvider {
     public static final Uri DRAFT_IMAGES_URI = Uri.parse(CONTENT_AUTHORITY +
             DRAFT_IMAGES_QUERY);
 
+    // Message search query
+    private static final String SEARCH_QUERY = "search";
+
+    public static final Uri SEARCH_URI = Uri.parse(CONTENT_AUTHORITY + SEARCH_QUERY);
+
+    /**
+     * Query parameters of the message search uri: the text to search for, and optionally the
+     * maximum number of results (defaults to {@link #SEARCH_DEFAULT_LIMIT})
+     */
+    public static final String SEARCH_PARAMETER_QUERY = "q";
+    public static final String SEARCH_PARAMETER_LIMIT = "limit";
+    private static final int SEARCH_DEFAULT_LIMIT = 100;
+
+    /**
+     * Markers around the matching terms in {@link MessageSearchQueryColumns#SNIPPET}
+     */
+    public static final String SEARCH_SNIPPET_MATCH_START = "\u0002";
+    public static final String SEARCH_SNIPPET_MATCH_END = "\u0003";
+    private static final String SEARCH_SNIPPET_ELLIPSIS = "\u2026";
+    private static final int SEARCH_SNIPPET_TOKENS = 12;
+
+    /**
+     * Columns of the message search results, one row per matching message part
+     */
+    public static class MessageSearchQueryColumns {
+        public static final String _ID = PartColumns._ID;
+        public static final String MESSAGE_ID = PartColumns.MESSAGE_ID;
+        public static final String CONVERSATION_ID = PartColumns.CONVERSATION_ID;
+        public static final String CONVERSATION_NAME = MessageSearchColumns.CONVERSATION_NAME;
+        public static final String RECEIVED_TIMESTAMP = MessageColumns.RECEIVED_TIMESTAMP;
+        /* text of the part around the matching terms, which are surrounded by markers */
+        public static final String SNIPPET = "snippet";
+    }
+
+    private static final String[] SEARCH_COLUMNS = {
+            MessageSearchQueryColumns._ID, MessageSearchQueryColumns.MESSAGE_ID,
+            MessageSearchQueryColumns.CONVERSATION_ID, MessageSearchQueryColumns.CONVERSATION_NAME,
+            MessageSearchQueryColumns.RECEIVED_TIMESTAMP, MessageSearchQueryColumns.SNIPPET };
+
+    // The newest matching parts are picked on the index alone, before the snippets of just
+    // those parts are built. Drafts are not searchable. Ranking is by recency as FTS4 has no
+    // relevance ranking function.
+    private static final String SEARCH_QUERY_SQL = "SELECT "
+            + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID
+            + " AS " + MessageSearchQueryColumns._ID + ", "
+            + DatabaseHelper.PARTS_TABLE + "." + PartColumns.MESSAGE_ID
+            + " AS " + MessageSearchQueryColumns.MESSAGE_ID + ", "
+            + DatabaseHelper.PARTS_TABLE + "." + PartColumns.CONVERSATION_ID
+            + " AS " + MessageSearchQueryColumns.CONVERSATION_ID + ", "
+            + DatabaseHelper.MESSAGE_SEARCH_TABLE + "." + MessageSearchColumns.CONVERSATION_NAME
+            + " AS " + MessageSearchQueryColumns.CONVERSATION_NAME + ", "
+            + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TIMESTAMP
+            + " AS " + MessageSearchQueryColumns.RECEIVED_TIMESTAMP + ", "
+            + "snippet(" + DatabaseHelper.MESSAGE_SEARCH_TABLE + ", ?, ?, ?, 0, "
+            + SEARCH_SNIPPET_TOKENS + ") AS " + MessageSearchQueryColumns.SNIPPET
+            + " FROM " + DatabaseHelper.MESSAGE_SEARCH_TABLE + " JOIN " + DatabaseHelper.PARTS_TABLE
+            + " ON " + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID + "="
+            + DatabaseHelper.MESSAGE_SEARCH_TABLE + ".docid"
+            + " WHERE " + DatabaseHelper.MESSAGE_SEARCH_TABLE + " MATCH ?"
+            + " AND " + DatabaseHelper.MESSAGE_SEARCH_TABLE + ".docid IN (SELECT "
+            + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID
+            + " FROM " + DatabaseHelper.MESSAGE_SEARCH_TABLE + " JOIN " + DatabaseHelper.PARTS_TABLE
+            + " ON " + DatabaseHelper.PARTS_TABLE + "." + PartColumns._ID + "="
+            + DatabaseHelper.MESSAGE_SEARCH_TABLE + ".docid"
+            + " JOIN " + DatabaseHelper.MESSAGES_TABLE
+            + " ON " + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns._ID + "="
+            + DatabaseHelper.PARTS_TABLE + "." + PartColumns.MESSAGE_ID
+            + " WHERE " + DatabaseHelper.MESSAGE_SEARCH_TABLE + " MATCH ?"
+            + " AND " + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.STATUS + "<>"
+            + MessageData.BUGLE_STATUS_OUTGOING_DRAFT
+            + " ORDER BY " + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TIMESTAMP + " DESC"
+            + " LIMIT %d)"
+            + " ORDER BY " + DatabaseHelper.PARTS_TABLE + "." + PartColumns.TIMESTAMP + " DESC";
+
+    // Debug query for action latency histograms (see ActionTimings)
+    private static final String DEBUG_ACTION_TIMINGS_QUERY = "debug/action_timings";
+
+    public static final Uri DEBUG_ACTION_TIMINGS_URI = Uri.parse(CONTENT_AUTHORITY +
+            DEBUG_ACTION_TIMINGS_QUERY);
+
     /**
      * Notifies that <i>all</i> data exposed by the provider needs to be refreshed.
      * <p>
@@ -150,6 +248,8 @@ public class MessagingContentProvider extends ContentProvider {
     private static final int CONVERSATION_IMAGES_QUERY_CODE = 50;
     private static final int DRAFT_IMAGES_QUERY_CODE = 60;
     private static final int PARTICIPANTS_QUERY_CODE = 70;
+    private static final int DEBUG_ACTION_TIMINGS_QUERY_CODE = 80;
+    private static final int SEARCH_QUERY_CODE = 90;
 
     // TODO: Move to a better structured URI namespace.
     private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -165,6 +265,18 @@ public class MessagingContentProvider extends ContentProvider {
                 CONVERSATION_IMAGES_QUERY_CODE);
         sURIMatcher.addURI(AUTHORITY, DRAFT_IMAGES_QUERY + "/*",
                 DRAFT_IMAGES_QUERY_CODE);
+        sURIMatcher.addURI(AUTHORITY, DEBUG_ACTION_TIMINGS_QUERY,
+                DEBUG_ACTION_TIMINGS_QUERY_CODE);
+        sURIMatcher.addURI(AUTHORITY, SEARCH_QUERY, SEARCH_QUERY_CODE);
+    }
+
+    /**
+     * Build a message search uri from the text the user typed
+     */
+    public static Uri buildSearchUri(final String query) {
+        final Uri.Builder builder = SEARCH_URI.buildUpon();
+        builder.appendQueryParameter(SEARCH_PARAMETER_QUERY, query);
+        return builder.build();
     }
 
     /**
@@ -176,6 +288,31 @@ public class MessagingContentProvider extends ContentProvider {
         return builder.build();
     }
 
+    /**
+     * Build a messages uri for the newest messages of a conversation.
+     */
+    public static Uri buildConversationMessagesUri(final String conversationId,
+            final int limit) {
+        final Uri.Builder builder = CONVERSATION_MESSAGES_URI.buildUpon();
+        builder.appendPath(conversationId);
+        builder.appendQueryParameter(CONVERSATION_MESSAGES_PARAMETER_LIMIT,
+                String.valueOf(limit));
+        return builder.build();
+    }
+
+    /**
+     * Build a messages uri for the messages of a conversation from the given oldest message on.
+     */
+    public static Uri buildConversationMessagesUri(final String conversationId,
+            final long anchorTimestamp, final String anchorMessageId) {
+        final Uri.Builder builder = CONVERSATION_MESSAGES_URI.buildUpon();
+        builder.appendPath(conversationId);
+        builder.appendQueryParameter(CONVERSATION_MESSAGES_PARAMETER_ANCHOR_TIMESTAMP,
+                String.valueOf(anchorTimestamp));
+        builder.appendQueryParameter(CONVERSATION_MESSAGES_PARAMETER_ANCHOR_ID, anchorMessageId);
+        return builder.build();
+    }
+
     public static void notifyMessagesChanged(final String conversationId) {
         final Uri uri = buildConversationMessagesUri(conversationId);
         final Context context = Factory.get().getApplicationContext();
@@ -250,8 +387,20 @@ public class MessagingContentProvider extends ContentProvider {
     }
 
     @Override
-    public Cursor query(@NonNull final Uri uri, final String[] projection, String selection,
-                        final String[] selectionArgs, String sortOrder) {
+    public Cursor query(@NonNull final Uri uri, final String[] projection, final String selection,
+                        final String[] selectionArgs, final String sortOrder) {
+        final boolean duringSync = DataModel.get().getSyncManager().isSyncing();
+        final long startTime = SystemClock.elapsedRealtime();
+        final Cursor cursor = queryDatabase(uri, projection, selection, selectionArgs, sortOrder);
+        // Fill the first window here, on the caller's loader thread, so that the time spent
+        // waiting for a connection and running the query is measured
+        cursor.getCount();
+        DatabaseMetrics.recordRead(SystemClock.elapsedRealtime() - startTime, duringSync);
+        return cursor;
+    }
+
+    private Cursor queryDatabase(final Uri uri, final String[] projection, String selection,
+            final String[] selectionArgs, String sortOrder) {
         final SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
 
         String[] queryArgs = selectionArgs;
@@ -260,12 +409,12 @@ public class MessagingContentProvider extends ContentProvider {
         String limit = null;
         switch (match) {
             case CONVERSATIONS_QUERY_CODE:
-                queryBuilder.setTables(ConversationListItemData.getConversationListView());
+                queryBuilder.setTables(ConversationListItemData.getConversationListTable());
                 // Hide empty conversations (ones with 0 sort_timestamp)
                 queryBuilder.appendWhere(ConversationColumns.SORT_TIMESTAMP + " > 0 ");
                 break;
             case CONVERSATION_QUERY_CODE:
-                queryBuilder.setTables(ConversationListItemData.getConversationListView());
+                queryBuilder.setTables(ConversationListItemData.getConversationListTable());
                 if (uri.getPathSegments().size() == 2) {
                     queryBuilder.appendWhere(ConversationColumns._ID + "=?");
                     // Get the conversation id from the uri
@@ -347,6 +496,18 @@ public class MessagingContentProvider extends ContentProvider {
                     throw new IllegalArgumentException("Malformed URI " + uri);
                 }
                 break;
+            case DEBUG_ACTION_TIMINGS_QUERY_CODE:
+                // Snapshot of in-memory histograms; selection and sorting are not supported
+                return ActionTimings.query();
+            case SEARCH_QUERY_CODE:
+                // Like the conversation messages query, search is a raw query on the full-text
+                // index which cannot take a selection or sort order
+                if (selection == null && selectionArgs == null && sortOrder == null) {
+                    return querySearch(uri);
+                } else {
+                    throw new IllegalArgumentException(
+                            "Cannot set selection or sort order with this query");
+                }
             default: {
                 throw new IllegalArgumentException("Unknown URI " + uri);
             }
@@ -359,13 +520,79 @@ public class MessagingContentProvider extends ContentProvider {
     }
 
     private Cursor queryConversationMessages(final String conversationId, final Uri notifyUri) {
-        final String[] queryArgs = { conversationId };
-        final Cursor cursor = getDatabaseWrapper().rawQuery(
-                ConversationMessageData.getConversationMessagesQuerySql(), queryArgs);
+        final String limit = notifyUri.getQueryParameter(CONVERSATION_MESSAGES_PARAMETER_LIMIT);
+        final String anchorTimestamp = notifyUri.getQueryParameter(
+                CONVERSATION_MESSAGES_PARAMETER_ANCHOR_TIMESTAMP);
+        final String anchorId = notifyUri.getQueryParameter(
+                CONVERSATION_MESSAGES_PARAMETER_ANCHOR_ID);
+        final String sql;
+        final String[] queryArgs;
+        if (anchorTimestamp != null && anchorId != null) {
+            sql = ConversationMessageData.getConversationMessagesAnchoredQuerySql();
+            queryArgs = new String[] { conversationId, anchorTimestamp, anchorTimestamp,
+                    anchorId };
+        } else if (limit != null) {
+            sql = ConversationMessageData.getConversationMessagesWindowQuerySql();
+            queryArgs = new String[] { conversationId, conversationId, limit };
+        } else {
+            sql = ConversationMessageData.getConversationMessagesQuerySql();
+            queryArgs = new String[] { conversationId };
+        }
+        final Cursor cursor = getDatabaseWrapper().rawQuery(sql, queryArgs);
         cursor.setNotificationUri(getContext().getContentResolver(), notifyUri);
         return cursor;
     }
 
+    private Cursor querySearch(final Uri uri) {
+        final String matchQuery = buildSearchMatchQuery(
+                uri.getQueryParameter(SEARCH_PARAMETER_QUERY));
+        int limit = SEARCH_DEFAULT_LIMIT;
+        final String limitParameter = uri.getQueryParameter(SEARCH_PARAMETER_LIMIT);
+        if (limitParameter != null) {
+            try {
+                limit = Integer.parseInt(limitParameter);
+            } catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed URI " + uri);
+            }
+        }
+
+        final Cursor cursor;
+        if (matchQuery == null || limit <= 0) {
+            cursor = new MatrixCursor(SEARCH_COLUMNS);
+        } else {
+            final String[] queryArgs = { SEARCH_SNIPPET_MATCH_START, SEARCH_SNIPPET_MATCH_END,
+                    SEARCH_SNIPPET_ELLIPSIS, matchQuery, matchQuery };
+            cursor = getDatabaseWrapper().rawQuery(
+                    String.format(Locale.US, SEARCH_QUERY_SQL, limit), queryArgs);
+        }
+        // Any message change may change the results
+        cursor.setNotificationUri(getContext().getContentResolver(), CONVERSATION_MESSAGES_URI);
+        return cursor;
+    }
+
+    /**
+     * Turn the text typed by the user into a full-text query matching messages that contain
+     * all of its words, each as a prefix since the user may still be typing. Words are quoted
+     * so that FTS operators in the text are searched for literally.
+     * @return the match query, or null if there is nothing to search for
+     */
+    private static String buildSearchMatchQuery(final String query) {
+        if (query == null) {
+            return null;
+        }
+        final StringBuilder matchQuery = new StringBuilder();
+        for (final String word : query.replace('"', ' ').trim().split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append('"').append(word).append("*\"");
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
     @Override
     public String getType(@NonNull final Uri uri) {
         final StringBuilder sb = new
@@ -441,6 +668,10 @@ public class MessagingContentProvider extends ContentProvider {
             defaultSmsApp = "None";
         }
         writer.println("Default SMS app: " + defaultSmsApp);
+        ActionTimings.dump(writer);
+        SyncMetrics.dump(writer);
+        DatabaseMetrics.dump(writer);
+        getDatabaseWrapper().dumpStatementCache(writer);
     }
 
     @Override
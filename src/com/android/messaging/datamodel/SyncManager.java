@@ -17,13 +17,20 @@
 
 package com.android.messaging.datamodel;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.Telephony;
+import android.provider.Telephony.Mms;
+import android.provider.Telephony.Sms;
+import android.util.LruCache;
 import androidx.collection.LongSparseArray;
 
+import com.android.messaging.datamodel.action.SyncChangedMessagesAction;
 import com.android.messaging.datamodel.action.SyncMessagesAction;
 import com.android.messaging.datamodel.data.ParticipantData;
 import com.android.messaging.sms.MmsUtils;
@@ -34,7 +41,9 @@ import com.android.messaging.util.BuglePrefsKeys;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
 import com.android.messaging.util.PhoneUtils;
+import com.android.messaging.util.ThreadUtil;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -46,6 +55,9 @@ import java.util.List;
 public class SyncManager {
     private static final String TAG = LogUtil.BUGLE_TAG;
 
+    // Wait for the matching sms or mms notification before falling back to a window sync
+    private static final long FALLBACK_SYNC_DELAY_MS = 1000L;
+
     /**
      * Record of any user customization to conversation settings
      */
@@ -261,7 +273,26 @@ public class SyncManager {
         mCustomization = null;
     }
 
-    private final ContentObserver mMmsSmsObserver = new TelephonyMessagesObserver();
+    // Telephony notifies a change to a single SMS or MMS both on the row's own uri and on the
+    // mms-sms uri. Changes seen on the sms and mms uris are synced by themselves; the mms-sms
+    // observer only falls back to a window sync when neither of them saw a change around the
+    // same time, e.g. for threads changed through the mms-sms provider.
+    private final ContentObserver mSmsObserver = new TelephonyMessagesObserver();
+    private final ContentObserver mMmsObserver = new TelephonyMessagesObserver();
+    private final ContentObserver mMmsSmsObserver = new MmsSmsFallbackObserver();
+    // Time (elapsed realtime) of the last change seen on the sms or mms uris
+    private volatile long mLastMessagesChangeTime = -1L;
+    // Time (elapsed realtime) of the last change seen on the mms-sms uri
+    private volatile long mLastMmsSmsChangeTime = -1L;
+    private final Runnable mFallbackSyncRunnable = () -> {
+        if (mLastMessagesChangeTime >= mLastMmsSmsChangeTime - FALLBACK_SYNC_DELAY_MS) {
+            // Already handled by the sms or mms observer
+            return;
+        }
+        // If sync is already running this will do nothing - but at end of each sync action
+        // there is a check for recent messages that should catch new changes.
+        SyncManager.immediateSync();
+    };
     private boolean mSyncOnChanges = false;
     private boolean mNotifyOnChanges = false;
 
@@ -297,11 +328,17 @@ public class SyncManager {
                 mSyncOnChanges = false;
             }
         }
+        final ContentResolver resolver = context.getContentResolver();
         if (mNotifyOnChanges || mSyncOnChanges) {
-            context.getContentResolver().registerContentObserver(Telephony.MmsSms.CONTENT_URI,
-                    true, mMmsSmsObserver);
+            resolver.registerContentObserver(Sms.CONTENT_URI, true, mSmsObserver);
+            resolver.registerContentObserver(Mms.CONTENT_URI, true, mMmsObserver);
+            resolver.registerContentObserver(Telephony.MmsSms.CONTENT_URI, true,
+                    mMmsSmsObserver);
         } else {
-            context.getContentResolver().unregisterContentObserver(mMmsSmsObserver);
+            resolver.unregisterContentObserver(mSmsObserver);
+            resolver.unregisterContentObserver(mMmsObserver);
+            resolver.unregisterContentObserver(mMmsSmsObserver);
+            ThreadUtil.getMainThreadHandler().removeCallbacks(mFallbackSyncRunnable);
         }
     }
 
@@ -322,8 +359,12 @@ public class SyncManager {
         prefs.putLong(BuglePrefsKeys.LAST_FULL_SYNC_TIME,
                 BuglePrefsKeys.LAST_FULL_SYNC_TIME_DEFAULT);
         prefs.putLong(BuglePrefsKeys.LAST_SYNC_TIME, BuglePrefsKeys.LAST_SYNC_TIME_DEFAULT);
+        prefs.remove(BuglePrefsKeys.SYNC_CHECKPOINT_UPPER_BOUND);
     }
 
+    /**
+     * Observer of the sms and mms uris, syncing just the changed row where the uri identifies one
+     */
     private class TelephonyMessagesObserver extends ContentObserver {
         public TelephonyMessagesObserver() {
             // Just run on default thread
@@ -349,39 +390,136 @@ public class SyncManager {
             }
 
             if (mSyncOnChanges) {
-                // If sync is already running this will do nothing - but at end of each sync
-                // action there is a check for recent messages that should catch new changes.
-                SyncManager.immediateSync();
+                mLastMessagesChangeTime = SystemClock.elapsedRealtime();
+                if (!syncChangedRow(uri)) {
+                    // If sync is already running this will do nothing - but at end of each sync
+                    // action there is a check for recent messages that should catch new changes.
+                    SyncManager.immediateSync();
+                }
             }
             if (mNotifyOnChanges) {
                 // TODO: Secondary users are not going to get notifications
             }
         }
+
+        /**
+         * Sync just the row when the uri identifies a single SMS or MMS, i.e. it is
+         * content://sms/<id>, content://mms/<id> or the same below a message box
+         * @return false if the change needs a window sync instead
+         */
+        private boolean syncChangedRow(final Uri uri) {
+            if (uri == null) {
+                return false;
+            }
+            final String authority = uri.getAuthority();
+            final boolean isMms = "mms".equals(authority);
+            if (!isMms && !"sms".equals(authority)) {
+                return false;
+            }
+            final List<String> segments = uri.getPathSegments();
+            if (segments.isEmpty() || segments.size() > 2
+                    || (segments.size() == 2 && !MESSAGE_BOXES.contains(segments.get(0)))) {
+                // E.g. a whole folder, a thread or MMS parts changed
+                return false;
+            }
+            final long rowId;
+            try {
+                rowId = Long.parseLong(uri.getLastPathSegment());
+            } catch (final NumberFormatException e) {
+                // E.g. a whole folder or the table changed
+                return false;
+            }
+            SyncChangedMessagesAction.sync(isMms, rowId);
+            return true;
+        }
+    }
+
+    // Message box path segments of the sms and mms uris
+    private static final HashSet<String> MESSAGE_BOXES = Sets.newHashSet(
+            "inbox", "sent", "draft", "drafts", "outbox", "failed", "queued");
+
+    /**
+     * Observer of the mms-sms uri. Only falls back to a window sync, after a delay, for changes
+     * that were not also notified on the sms or mms uris.
+     */
+    private class MmsSmsFallbackObserver extends ContentObserver {
+        public MmsSmsFallbackObserver() {
+            // Just run on default thread
+            super(null);
+        }
+
+        @Override
+        public void onChange(final boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(final boolean selfChange, final Uri uri) {
+            if (mSyncOnChanges) {
+                mLastMmsSmsChangeTime = SystemClock.elapsedRealtime();
+                final Handler handler = ThreadUtil.getMainThreadHandler();
+                handler.removeCallbacks(mFallbackSyncRunnable);
+                handler.postDelayed(mFallbackSyncRunnable, FALLBACK_SYNC_DELAY_MS);
+            }
+        }
     }
 
     public ThreadInfoCache getThreadInfoCache() {
         return mThreadInfoCache;
     }
 
+    /**
+     * Cache of thread info used while syncing. Both maps are bounded, keeping the most recently
+     * used threads.
+     */
     public static class ThreadInfoCache {
         // Cache of thread->conversationId map
-        private final LongSparseArray<String> mThreadToConversationId = new LongSparseArray<>();
+        private final LruCache<Long, String> mThreadToConversationId =
+                new LruCache<>(BugleGservicesKeys.SMS_SYNC_THREAD_CACHE_SIZE_DEFAULT);
 
         // Cache of thread->recipients map
-        private final LongSparseArray<List<String>> mThreadToRecipients = new LongSparseArray<>();
+        private final LruCache<Long, List<String>> mThreadToRecipients =
+                new LruCache<>(BugleGservicesKeys.SMS_SYNC_THREAD_CACHE_SIZE_DEFAULT);
 
         // Remember the conversation ids that need to be archived
         private final HashSet<String> mArchivedConversations = new HashSet<>();
 
         public synchronized void clear() {
             if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
-                LogUtil.d(TAG, "SyncManager: Cleared ThreadInfoCache");
+                LogUtil.d(TAG, "SyncManager: Cleared ThreadInfoCache; recipients "
+                        + mThreadToRecipients + ", conversations " + mThreadToConversationId);
             }
-            mThreadToConversationId.clear();
-            mThreadToRecipients.clear();
+            mThreadToConversationId.evictAll();
+            mThreadToRecipients.evictAll();
             mArchivedConversations.clear();
         }
 
+        /**
+         * Clear only the conversations, keeping the recipients loaded for the current sync. Used
+         * between the batches of a sync, as conversations may have been deleted meanwhile.
+         */
+        public synchronized void clearConversations() {
+            mThreadToConversationId.evictAll();
+            mArchivedConversations.clear();
+        }
+
+        /**
+         * Clear the cache and load the recipients of the most recently active threads in bulk,
+         * which is far cheaper than resolving each thread as its first message is synced
+         */
+        public synchronized void preload() {
+            clear();
+            final LongSparseArray<List<String>> recipients =
+                    MmsUtils.getRecipientsOfRecentThreads(mThreadToRecipients.maxSize());
+            for (int i = 0; i < recipients.size(); i++) {
+                mThreadToRecipients.put(recipients.keyAt(i), recipients.valueAt(i));
+            }
+            if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+                LogUtil.d(TAG, "SyncManager: Preloaded recipients of " + recipients.size()
+                        + " threads");
+            }
+        }
+
         public synchronized boolean isArchived(final String conversationId) {
             return mArchivedConversations.contains(conversationId);
         }
@@ -20,6 +20,7 @@ package com.android.messaging.datamodel.action;
 import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.android.messaging.datamodel.DataModel;
@@ -48,6 +49,14 @@ public abstract class Action implements Parcelable {
     // This does not get written to the parcel
     private final List<Action> mBackgroundActions = new LinkedList<>();
 
+    // Phase timestamps (elapsed realtime) for ActionTimings - not written to the parcel so
+    // phases spanning a parcel round trip are not recorded
+    private long mQueuedTimeMillis;
+    private long mExecuteStartTimeMillis;
+    private long mBackgroundQueuedTimeMillis;
+    private long mBackgroundStartTimeMillis;
+    private long mCompletionQueuedTimeMillis;
+
     /**
      * Process the action locally - runs on action service thread.
      * TODO: Currently, there is no way for this method to indicate failure
@@ -87,6 +96,10 @@ public abstract class Action implements Parcelable {
      * Send queued actions to the background worker provided
      */
     public void sendBackgroundActions(final BackgroundWorker worker) {
+        final long now = SystemClock.elapsedRealtime();
+        for (final Action action : mBackgroundActions) {
+            action.mBackgroundQueuedTimeMillis = now;
+        }
         worker.queueBackgroundWork(mBackgroundActions);
         mBackgroundActions.clear();
     }
@@ -101,6 +114,64 @@ public abstract class Action implements Parcelable {
         return null;
     }
 
+    /**
+     * Key used to order background work. Background actions with the same key run one at a
+     * time in the order they were queued, actions with different keys may run in parallel.
+     * @return ordering key or null (the default) to be serialized with all other actions that
+     *         do not declare a key
+     */
+    protected String getBackgroundOrderingKey() {
+        return null;
+    }
+
+    /**
+     * Helper for derived classes to order background work per conversation
+     */
+    protected static String getConversationOrderingKey(final String conversationId) {
+        return TextUtils.isEmpty(conversationId) ? null : "conversation:" + conversationId;
+    }
+
+    /**
+     * Priority classes. Interactive work is dispatched ahead of bulk work, which yields to
+     * interactive work between batches.
+     */
+    static final int PRIORITY_INTERACTIVE = 0;
+    static final int PRIORITY_BULK = 1;
+
+    /**
+     * Priority class of this action, used both on the action thread and in the background
+     * worker
+     * @return PRIORITY_INTERACTIVE (the default) for work the user is waiting on or
+     *         PRIORITY_BULK for long running maintenance work such as sync
+     */
+    protected int getPriority() {
+        return PRIORITY_INTERACTIVE;
+    }
+
+    /**
+     * Whether this action may be handed to the action thread through the in-process
+     * {@link ActionDispatcher}. Queued work is lost with the process there, so this is only
+     * for idempotent work such as UI initiated updates. Everything else, in particular
+     * receiving and sending messages, goes through the JobIntentService which redelivers
+     * work that did not complete.
+     * @return false (the default) to always queue the action to the JobIntentService
+     */
+    protected boolean canDispatchInProcess() {
+        return false;
+    }
+
+    /**
+     * Whether the background work of this action may run on the in-process
+     * {@link BackgroundWorkerPool}. As with {@link #canDispatchInProcess}, work queued there is
+     * lost with the process, so this is only for work that is redone anyway, such as reading
+     * telephony during a sync. Sending and downloading messages stays on the
+     * BackgroundWorkerService, which redelivers work that did not complete.
+     * @return false (the default) to always queue background work to the JobIntentService
+     */
+    protected boolean canRunInPool() {
+        return false;
+    }
+
     /**
      * Process the success response from the background worker. Runs on action service thread.
      * @param response the response returned by {@link #doBackgroundWork}
@@ -118,6 +189,30 @@ public abstract class Action implements Parcelable {
         return null;
     }
 
+    /**
+     * Key used to coalesce redundant instances of this action. When an action is started while
+     * another action with the same key is still waiting to execute, the pending action is
+     * offered the new one through {@link #coalesceWith} instead of both running in full.
+     * Actions started with a monitor or not dispatched in-process are never coalesced.
+     * @return coalescing key or null (the default) if every instance needs to execute
+     */
+    protected String getCoalescingKey() {
+        return null;
+    }
+
+    /**
+     * Merge a newer action with the same coalescing key into this pending action. Runs on the
+     * thread starting the newer action, before this action begins executing. The default
+     * policy is latest-wins: this action takes on the parameters of the newer one.
+     * @param newer - the newly started action which is dropped if this returns true
+     * @return true if the newer action was merged into this one
+     */
+    protected boolean coalesceWith(final Action newer) {
+        actionParameters.clear();
+        actionParameters.putAll(newer.actionParameters);
+        return true;
+    }
+
     /**
      * Constructor
      */
@@ -160,6 +255,7 @@ public abstract class Action implements Parcelable {
      * Called when action queues ActionService intent
      */
     protected final void markStart() {
+        mQueuedTimeMillis = SystemClock.elapsedRealtime();
         ActionMonitor.setState(this, ActionMonitor.STATE_CREATED,
                 ActionMonitor.STATE_QUEUED);
     }
@@ -168,6 +264,8 @@ public abstract class Action implements Parcelable {
      * Mark the beginning of local action execution
      */
     protected final void markBeginExecute() {
+        mExecuteStartTimeMillis = SystemClock.elapsedRealtime();
+        recordTiming(ActionTimings.PHASE_QUEUE_WAIT, mQueuedTimeMillis, mExecuteStartTimeMillis);
         ActionMonitor.setState(this, ActionMonitor.STATE_QUEUED,
                 ActionMonitor.STATE_EXECUTING);
     }
@@ -177,6 +275,8 @@ public abstract class Action implements Parcelable {
      * background actions
      */
     protected final void markEndExecute(final Object result) {
+        recordTiming(ActionTimings.PHASE_EXECUTE, mExecuteStartTimeMillis,
+                SystemClock.elapsedRealtime());
         final boolean hasBackgroundActions = hasBackgroundActions();
         ActionMonitor.setExecutedState(this, ActionMonitor.STATE_EXECUTING,
                 hasBackgroundActions, result);
@@ -190,6 +290,9 @@ public abstract class Action implements Parcelable {
      * Update action state to indicate that the background worker is starting
      */
     protected final void markBackgroundWorkStarting() {
+        mBackgroundStartTimeMillis = SystemClock.elapsedRealtime();
+        recordTiming(ActionTimings.PHASE_BACKGROUND_WAIT, mBackgroundQueuedTimeMillis,
+                mBackgroundStartTimeMillis);
         ActionMonitor.setState(this,
                 ActionMonitor.STATE_BACKGROUND_ACTIONS_QUEUED,
                 ActionMonitor.STATE_EXECUTING_BACKGROUND_ACTION);
@@ -200,6 +303,9 @@ public abstract class Action implements Parcelable {
      * (or failure) to the Action service
      */
     protected final void markBackgroundCompletionQueued() {
+        mCompletionQueuedTimeMillis = SystemClock.elapsedRealtime();
+        recordTiming(ActionTimings.PHASE_BACKGROUND_WORK, mBackgroundStartTimeMillis,
+                mCompletionQueuedTimeMillis);
         ActionMonitor.setState(this,
                 ActionMonitor.STATE_EXECUTING_BACKGROUND_ACTION,
                 ActionMonitor.STATE_BACKGROUND_COMPLETION_QUEUED);
@@ -223,6 +329,8 @@ public abstract class Action implements Parcelable {
                 ActionMonitor.STATE_BACKGROUND_COMPLETION_QUEUED,
                 ActionMonitor.STATE_PROCESSING_BACKGROUND_RESPONSE);
         final Object result = processBackgroundResponse(response);
+        recordTiming(ActionTimings.PHASE_COMPLETION, mCompletionQueuedTimeMillis,
+                SystemClock.elapsedRealtime());
         ActionMonitor.setCompleteState(this,
                 ActionMonitor.STATE_PROCESSING_BACKGROUND_RESPONSE, result, true);
     }
@@ -232,10 +340,21 @@ public abstract class Action implements Parcelable {
      */
     protected final void processBackgroundWorkFailure() {
         final Object result = processBackgroundFailure();
+        recordTiming(ActionTimings.PHASE_COMPLETION, mCompletionQueuedTimeMillis,
+                SystemClock.elapsedRealtime());
         ActionMonitor.setCompleteState(this, ActionMonitor.STATE_UNDEFINED,
                 result, false);
     }
 
+    /**
+     * Record a phase in ActionTimings if its start was seen in this process
+     */
+    private void recordTiming(final int phase, final long startMillis, final long endMillis) {
+        if (startMillis > 0) {
+            ActionTimings.record(this, phase, endMillis - startMillis);
+        }
+    }
+
     private static final Object sLock = new Object();
     private static long sActionIdx = System.currentTimeMillis() * 1000;
 
@@ -278,16 +397,28 @@ public abstract class Action implements Parcelable {
      * to parcel Action member variables before they parcel their member variables).
      */
     public void writeActionToParcel(final Parcel parcel, final int flags) {
+        final int startPosition = parcel.dataPosition();
+        final long startNanos = ActionTimings.PARCEL_STATS_ENABLED
+                ? SystemClock.elapsedRealtimeNanos() : 0;
         parcel.writeString(this.actionKey);
         parcel.writeBundle(this.actionParameters);
+        if (ActionTimings.PARCEL_STATS_ENABLED) {
+            ActionTimings.recordParcelWrite(this, parcel.dataPosition() - startPosition,
+                    SystemClock.elapsedRealtimeNanos() - startNanos);
+        }
     }
 
     /**
      * Helper for derived classes to implement parcelable
      */
     public Action(final Parcel in) {
+        final long startNanos = ActionTimings.PARCEL_STATS_ENABLED
+                ? SystemClock.elapsedRealtimeNanos() : 0;
         this.actionKey = in.readString();
         // Note: Need to set classloader to ensure we can un-parcel classes from this package
         this.actionParameters = in.readBundle(Action.class.getClassLoader());
+        if (ActionTimings.PARCEL_STATS_ENABLED) {
+            ActionTimings.recordParcelRead(this, SystemClock.elapsedRealtimeNanos() - startNanos);
+        }
     }
 }
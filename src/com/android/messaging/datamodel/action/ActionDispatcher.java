@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.PowerManager;
+import android.os.Process;
+
+import com.android.messaging.Factory;
+import com.android.messaging.util.LogUtil;
+
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process dispatcher for the action service. While the process is alive, actions that
+ * allow it (see {@link Action#canDispatchInProcess}) and their background worker responses are
+ * handed to the action thread by reference instead of being parceled into an intent and
+ * enqueued on {@link ActionServiceImpl}, so queued work does not survive the process. Work
+ * is processed by {@link ActionServiceImpl#handleWork} so it stays serialized with anything
+ * delivered through the JobIntentService path (e.g. alarms, pending intents and actions that
+ * must not be lost). Actions which declare a coalescing key are merged into an equivalent
+ * action that is still waiting in the queue.
+ */
+class ActionDispatcher {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    /**
+     * Priority lanes, lower lanes are dispatched first. Responses from the background worker
+     * complete work that is already in flight so they are processed ahead of new actions.
+     * Bulk actions (see {@link Action#getPriority}) use a second set of lanes behind all
+     * interactive work in this queue. Interactive work delivered through the JobIntentService,
+     * such as a send started during a long sync, is put ahead of bulk work by
+     * {@link ActionServiceImpl#handleWork}.
+     */
+    static final int LANE_BACKGROUND_COMPLETION = 0;
+    static final int LANE_START_ACTION = 1;
+    private static final int LANE_COUNT = 2;
+
+    /**
+     * Upper bound on queued work. Beyond this callers fall back to the JobIntentService path
+     * rather than growing the in-memory queue without limit.
+     */
+    private static final int MAX_QUEUED_WORK = 1000;
+
+    // Safety net in case the dispatch thread stops releasing the wake lock
+    private static final long WAKE_LOCK_TIMEOUT_MS = 10 * 60 * 1000L;
+    private static final String WAKE_LOCK_ID = "bugle_action_dispatcher_wakelock";
+
+    private static final ActionDispatcher sInstance = new ActionDispatcher();
+
+    static ActionDispatcher get() {
+        return sInstance;
+    }
+
+    /**
+     * Unit of work queued to the action thread
+     */
+    private static class Work implements Comparable<Work> {
+        final int opcode;
+        final Action action;
+        final Bundle response;
+        final int lane;
+        final long sequence;
+        final String coalescingKey;
+
+        Work(final int opcode, final Action action, final Bundle response, final int lane,
+                final long sequence, final String coalescingKey) {
+            this.opcode = opcode;
+            this.action = action;
+            this.response = response;
+            this.lane = lane;
+            this.sequence = sequence;
+            this.coalescingKey = coalescingKey;
+        }
+
+        @Override
+        public int compareTo(final Work other) {
+            if (lane != other.lane) {
+                return lane < other.lane ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityBlockingQueue<Work> mQueue = new PriorityBlockingQueue<>();
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Object mLock = new Object();
+    // Queued actions which have not started executing, indexed by coalescing key
+    private final HashMap<String, Work> mPendingCoalescable = new HashMap<>();
+    private Thread mThread;
+    private PowerManager.WakeLock mWakeLock;
+
+    private ActionDispatcher() {
+    }
+
+    /**
+     * Queue work for the action thread
+     * @param opcode - one of the ActionServiceImpl OP_* codes
+     * @param action - action to process, passed by reference
+     * @param response - background worker response (only for OP_RECEIVE_BACKGROUND_RESPONSE)
+     * @param lane - priority lane for the work
+     * @return false if the work could not be queued and the caller needs to use the
+     *         JobIntentService path instead
+     */
+    boolean dispatch(final int opcode, final Action action, final Bundle response,
+            final int lane) {
+        if (mQueue.size() >= MAX_QUEUED_WORK) {
+            LogUtil.w(TAG, "ActionDispatcher: queue full, falling back to ActionService");
+            return false;
+        }
+        final String coalescingKey = getCoalescingKey(opcode, action);
+        final int effectiveLane = action.getPriority() == Action.PRIORITY_BULK
+                ? lane + LANE_COUNT : lane;
+        final Work work = new Work(opcode, action, response, effectiveLane,
+                mSequence.incrementAndGet(), coalescingKey);
+        synchronized (mLock) {
+            if (coalescingKey != null) {
+                final Work pending = mPendingCoalescable.get(coalescingKey);
+                if (pending != null && pending.action.coalesceWith(action)) {
+                    if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
+                        LogUtil.v(TAG, "ActionDispatcher: coalesced " + action.actionKey
+                                + " into " + pending.action.actionKey);
+                    }
+                    return true;
+                }
+                mPendingCoalescable.put(coalescingKey, work);
+            }
+            ensureStartedLocked();
+            mWakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+        }
+        mQueue.add(work);
+        return true;
+    }
+
+    /**
+     * Only fire-and-forget actions that have not yet executed can be coalesced since a
+     * dropped action would never complete its monitor
+     */
+    private static String getCoalescingKey(final int opcode, final Action action) {
+        if (opcode != ActionServiceImpl.OP_START_ACTION
+                || ActionMonitor.hasActionMonitor(action.actionKey)) {
+            return null;
+        }
+        return action.getCoalescingKey();
+    }
+
+    /**
+     * Number of work items waiting for the action thread
+     */
+    int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    private void ensureStartedLocked() {
+        if (mWakeLock == null) {
+            final Context context = Factory.get().getApplicationContext();
+            final PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_ID);
+            mWakeLock.setReferenceCounted(true);
+        }
+        if (mThread == null) {
+            mThread = new Thread(this::processQueue, "ActionDispatcher");
+            mThread.start();
+        }
+    }
+
+    private void processQueue() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (true) {
+            final Work work;
+            try {
+                work = mQueue.take();
+            } catch (final InterruptedException e) {
+                continue;
+            }
+            if (work.coalescingKey != null) {
+                // Stop merging into this action now that it is about to execute
+                synchronized (mLock) {
+                    if (mPendingCoalescable.get(work.coalescingKey) == work) {
+                        mPendingCoalescable.remove(work.coalescingKey);
+                    }
+                }
+            }
+            try {
+                ActionServiceImpl.handleWork(work.opcode, work.action, work.response);
+            } finally {
+                releaseWakeLock();
+            }
+        }
+    }
+
+    private void releaseWakeLock() {
+        try {
+            mWakeLock.release();
+        } catch (final RuntimeException e) {
+            // The wake lock timed out while the work was running
+            LogUtil.w(TAG, "ActionDispatcher: wake lock already released");
+        }
+    }
+}
@@ -17,9 +17,8 @@
 
 package com.android.messaging.datamodel.action;
 
-import android.os.Handler;
-import androidx.collection.SimpleArrayMap;
 import android.text.TextUtils;
+import android.view.Choreographer;
 
 import com.android.messaging.util.Assert.RunsOnAnyThread;
 import com.android.messaging.util.Assert.RunsOnMainThread;
@@ -29,6 +28,9 @@ import com.android.messaging.util.ThreadUtil;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Base class for action monitors
@@ -142,11 +144,6 @@ public class ActionMonitor {
      */
     private ActionStateChangedListener mStateChangedListener;
 
-    /**
-     * Handler used to post results back to caller
-     */
-    private final Handler mHandler;
-
     /**
      * Data passed back to listeners (associated with the action when it is created)
      */
@@ -186,7 +183,6 @@ public class ActionMonitor {
      */
     protected ActionMonitor(final int initialState, final String actionKey,
             final Object data) {
-        mHandler = ThreadUtil.getMainThreadHandler();
         mActionKey = actionKey;
         mState = initialState;
         mData = data;
@@ -300,7 +296,7 @@ public class ActionMonitor {
         }
         if (completedListener != null) {
             // Marshal to UI thread
-            mHandler.post(() -> {
+            postToMainThread(() -> {
                 ActionCompletedListener listener = null;
                 synchronized (mLock) {
                     if (mCompletedListener != null) {
@@ -366,7 +362,7 @@ public class ActionMonitor {
         }
         if (executedListener != null) {
             // Marshal to UI thread
-            mHandler.post(() -> {
+            postToMainThread(() -> {
                 ActionExecutedListener listener = null;
                 synchronized (mLock) {
                     if (mExecutedListener != null) {
@@ -406,10 +402,47 @@ public class ActionMonitor {
         }
     }
 
+    /**
+     * Listener callbacks waiting to be delivered on the main thread
+     */
+    private static final ConcurrentLinkedQueue<Runnable> sPendingCallbacks =
+            new ConcurrentLinkedQueue<>();
+
+    /**
+     * Set while a delivery of pending callbacks is scheduled on the main thread
+     */
+    private static final AtomicBoolean sDeliveryScheduled = new AtomicBoolean();
+
+    /**
+     * Runs every pending callback in one main thread frame
+     */
+    private static final Choreographer.FrameCallback sDeliverPendingCallbacks =
+            frameTimeNanos -> {
+                // Clear first so callbacks queued while draining schedule another frame
+                sDeliveryScheduled.set(false);
+                Runnable callback;
+                while ((callback = sPendingCallbacks.poll()) != null) {
+                    callback.run();
+                }
+            };
+
+    /**
+     * Queue a listener callback for the main thread. A burst of completions is delivered in a
+     * single frame, costing one handler message rather than one per callback.
+     */
+    private static void postToMainThread(final Runnable callback) {
+        sPendingCallbacks.add(callback);
+        if (sDeliveryScheduled.compareAndSet(false, true)) {
+            ThreadUtil.getMainThreadHandler().post(() ->
+                    Choreographer.getInstance().postFrameCallback(sDeliverPendingCallbacks));
+        }
+    }
+
     /**
      * Map of action monitors indexed by actionKey
      */
-    static final SimpleArrayMap<String, ActionMonitor> sActionMonitors = new SimpleArrayMap<>();
+    static final ConcurrentHashMap<String, ActionMonitor> sActionMonitors =
+            new ConcurrentHashMap<>();
 
     /**
      * Insert new monitor into map
@@ -423,8 +456,10 @@ public class ActionMonitor {
             throw new IllegalArgumentException("Monitor key " + monitor.getActionKey()
                     + " not compatible with action key " + actionKey);
         }
-        synchronized (sActionMonitors) {
+        if (monitor != null) {
             sActionMonitors.put(actionKey, monitor);
+        } else if (actionKey != null) {
+            sActionMonitors.remove(actionKey);
         }
     }
 
@@ -432,11 +467,14 @@ public class ActionMonitor {
      * Find monitor associated with particular action
      */
     private static ActionMonitor lookupActionMonitor(final String actionKey) {
-        ActionMonitor monitor = null;
-        synchronized (sActionMonitors) {
-            monitor = sActionMonitors.get(actionKey);
-        }
-        return monitor;
+        return actionKey == null ? null : sActionMonitors.get(actionKey);
+    }
+
+    /**
+     * Check if a monitor is registered for a particular action
+     */
+    static boolean hasActionMonitor(final String actionKey) {
+        return lookupActionMonitor(actionKey) != null;
     }
 
     /**
@@ -445,9 +483,7 @@ public class ActionMonitor {
     static void unregisterActionMonitorIfComplete(final String actionKey,
             final ActionMonitor monitor) {
         if (monitor != null && monitor.isComplete()) {
-            synchronized (sActionMonitors) {
-                sActionMonitors.remove(actionKey);
-            }
+            sActionMonitors.remove(actionKey, monitor);
         }
     }
 }
@@ -45,6 +45,13 @@ public class ActionService {
         ActionServiceImpl.scheduleAction(action, code, delayMs);
     }
 
+    /**
+     * Restore the wake-up alarm for actions scheduled before the process was restarted
+     */
+    public void restoreScheduledActions() {
+        ActionServiceImpl.restoreScheduledActions();
+    }
+
     /**
      * Process a response from the BackgroundWorker in the ActionService
      */
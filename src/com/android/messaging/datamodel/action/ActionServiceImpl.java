@@ -17,13 +17,11 @@
 
 package com.android.messaging.datamodel.action;
 
-import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.JobIntentService;
@@ -33,6 +31,12 @@ import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.LoggingTimer;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  * ActionService used to perform background processing for data model
  */
@@ -54,28 +58,36 @@ public class ActionServiceImpl extends JobIntentService {
      * @param action - action to start
      */
     protected static void startAction(final Action action) {
+        action.markStart();
+        if (action.canDispatchInProcess() && ActionDispatcher.get().dispatch(OP_START_ACTION,
+                action, null, ActionDispatcher.LANE_START_ACTION)) {
+            return;
+        }
         final Intent intent = makeIntent(OP_START_ACTION);
         final Bundle actionBundle = new Bundle();
         actionBundle.putParcelable(BUNDLE_ACTION, action);
         intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
-        action.markStart();
         startServiceWithIntent(intent);
     }
 
     /**
-     * Schedule an action to run after specified delay using alarm manager to send pendingintent
+     * Schedule an action to run after specified delay. The action is recorded in the
+     * {@link ScheduledActionJournal} which shares one wake-up alarm between all scheduled actions
      * @param action - action to start
      * @param requestCode - request code used to collapse requests
-     * @param delayMs - delay in ms (from now) before action will start
+     * @param delayMs - delay in ms (from now) before action will start, Long.MAX_VALUE cancels
+     *                  the action scheduled for the request code
      */
     protected static void scheduleAction(final Action action, final int requestCode,
             final long delayMs) {
-        final Intent intent = PendingActionReceiver.makeIntent(OP_START_ACTION);
-        final Bundle actionBundle = new Bundle();
-        actionBundle.putParcelable(BUNDLE_ACTION, action);
-        intent.putExtra(EXTRA_ACTION_BUNDLE, actionBundle);
+        ScheduledActionJournal.schedule(action, requestCode, delayMs);
+    }
 
-        PendingActionReceiver.scheduleAlarm(intent, requestCode, delayMs);
+    /**
+     * Re-arm the wake-up alarm for scheduled actions, which does not survive a reboot
+     */
+    protected static void restoreScheduledActions() {
+        ScheduledActionJournal.restoreAlarm();
     }
 
     /**
@@ -84,6 +96,11 @@ public class ActionServiceImpl extends JobIntentService {
      */
     protected static void handleResponseFromBackgroundWorker(final Action action,
             final Bundle response) {
+        if (action.canDispatchInProcess() && ActionDispatcher.get().dispatch(
+                OP_RECEIVE_BACKGROUND_RESPONSE, action, response,
+                ActionDispatcher.LANE_BACKGROUND_COMPLETION)) {
+            return;
+        }
         final Intent intent = makeIntent(OP_RECEIVE_BACKGROUND_RESPONSE);
 
         final Bundle actionBundle = new Bundle();
@@ -99,6 +116,11 @@ public class ActionServiceImpl extends JobIntentService {
      */
     protected static void handleFailureFromBackgroundWorker(final Action action,
             final Exception exception) {
+        if (action.canDispatchInProcess() && ActionDispatcher.get().dispatch(
+                OP_RECEIVE_BACKGROUND_FAILURE, action, null,
+                ActionDispatcher.LANE_BACKGROUND_COMPLETION)) {
+            return;
+        }
         final Intent intent = makeIntent(OP_RECEIVE_BACKGROUND_FAILURE);
 
         final Bundle actionBundle = new Bundle();
@@ -113,6 +135,7 @@ public class ActionServiceImpl extends JobIntentService {
     protected static final int OP_START_ACTION = 200;
     protected static final int OP_RECEIVE_BACKGROUND_RESPONSE = 201;
     protected static final int OP_RECEIVE_BACKGROUND_FAILURE = 202;
+    protected static final int OP_RUN_SCHEDULED_ACTIONS = 203;
 
     // extras
     protected static final String EXTRA_OP_CODE = "op";
@@ -122,7 +145,16 @@ public class ActionServiceImpl extends JobIntentService {
     protected static final String EXTRA_WORKER_UPDATE = "worker_update";
     protected static final String BUNDLE_ACTION = "bundle_action";
 
-    private BackgroundWorker mBackgroundWorker;
+    /**
+     * Serializes action processing between the JobIntentService and the in-process dispatcher.
+     * Fair, so that threads take turns in arrival order rather than the dispatcher winning the
+     * lock again and again.
+     */
+    private static final ReentrantLock sActionThreadLock = new ReentrantLock(true /* fair */);
+    // Signalled when no interactive work is waiting for the action thread any more
+    private static final Condition sInteractiveWorkDone = sActionThreadLock.newCondition();
+    // Interactive work waiting for or about to take the action thread, on either path
+    private static final AtomicInteger sInteractiveWorkWaiting = new AtomicInteger();
 
     /**
      * Allocate an intent with a specific opcode.
@@ -151,24 +183,6 @@ public class ActionServiceImpl extends JobIntentService {
             return intent;
         }
 
-        public static void scheduleAlarm(final Intent intent, final int requestCode,
-                final long delayMs) {
-            final Context context = Factory.get().getApplicationContext();
-            final PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                    context, requestCode, intent,
-                    PendingIntent.FLAG_CANCEL_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-            final AlarmManager mgr =
-                    (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-
-            if (delayMs < Long.MAX_VALUE) {
-                mgr.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                        SystemClock.elapsedRealtime() + delayMs, pendingIntent);
-            } else {
-                mgr.cancel(pendingIntent);
-            }
-        }
-
         /**
          * {@inheritDoc}
          */
@@ -196,17 +210,20 @@ public class ActionServiceImpl extends JobIntentService {
     }
 
     /**
-     * {@inheritDoc}
+     * Dump action latency histograms, sync batch statistics and dispatch queue state, e.g. via
+     * adb shell dumpsys activity service ActionServiceImpl
      */
     @Override
-    public void onCreate() {
-        super.onCreate();
-        mBackgroundWorker = DataModel.get().getBackgroundWorkerForActionService();
-    }
-
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
+    protected void dump(final FileDescriptor fd, final PrintWriter writer, final String[] args) {
+        writer.println("Action dispatcher queue depth: "
+                + ActionDispatcher.get().getQueueDepth());
+        final BackgroundWorkerPool pool = BackgroundWorkerPool.get();
+        writer.println("Background worker pool: queued=" + pool.getQueueDepth()
+                + " active=" + pool.getActiveCount() + " started=" + pool.getStartedCount()
+                + " avg_wait_ms=" + pool.getAverageWaitMillis()
+                + " max_wait_ms=" + pool.getMaxWaitMillis());
+        ActionTimings.dump(writer);
+        SyncMetrics.dump(writer);
     }
 
     /**
@@ -234,42 +251,79 @@ public class ActionServiceImpl extends JobIntentService {
             return;
         }
         final int opcode = intent.getIntExtra(EXTRA_OP_CODE, 0);
+        if (opcode == OP_RUN_SCHEDULED_ACTIONS) {
+            // Wake-up alarm for the scheduled action journal, carries no action
+            sActionThreadLock.lock();
+            try {
+                ScheduledActionJournal.runDueActions();
+            } finally {
+                sActionThreadLock.unlock();
+            }
+            return;
+        }
 
-        Action action;
         final Bundle actionBundle = intent.getBundleExtra(EXTRA_ACTION_BUNDLE);
         actionBundle.setClassLoader(getClassLoader());
-        switch(opcode) {
-            case OP_START_ACTION: {
-                action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
-                executeAction(action);
-                break;
-            }
+        final Action action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
+        final Bundle response = intent.getBundleExtra(EXTRA_WORKER_RESPONSE);
+        handleWork(opcode, action, response);
+    }
 
-            case OP_RECEIVE_BACKGROUND_RESPONSE: {
-                action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
-                final Bundle response = intent.getBundleExtra(EXTRA_WORKER_RESPONSE);
-                processBackgroundResponse(action, response);
-                break;
+    /**
+     * Process an action on the action thread. Called both for intents delivered to the service
+     * and for work queued through the in-process {@link ActionDispatcher}. The dispatcher's
+     * lanes only order its own queue, so the priority decision between the two paths is made
+     * here: bulk work (see {@link Action#getPriority}) waits before each step while interactive
+     * work from either path is waiting, e.g. a send tapped during a resync runs before the next
+     * sync batch.
+     */
+    static void handleWork(final int opcode, final Action action, final Bundle response) {
+        final boolean interactive = action.getPriority() == Action.PRIORITY_INTERACTIVE;
+        if (interactive) {
+            sInteractiveWorkWaiting.incrementAndGet();
+        }
+        sActionThreadLock.lock();
+        try {
+            if (interactive) {
+                if (sInteractiveWorkWaiting.decrementAndGet() == 0) {
+                    sInteractiveWorkDone.signalAll();
+                }
+            } else {
+                while (sInteractiveWorkWaiting.get() > 0) {
+                    sInteractiveWorkDone.awaitUninterruptibly();
+                }
             }
-
-            case OP_RECEIVE_BACKGROUND_FAILURE: {
-                action = (Action) actionBundle.getParcelable(BUNDLE_ACTION);
-                processBackgroundFailure(action);
-                break;
+            switch(opcode) {
+                case OP_START_ACTION: {
+                    executeAction(action);
+                    break;
+                }
+
+                case OP_RECEIVE_BACKGROUND_RESPONSE: {
+                    processBackgroundResponse(action, response);
+                    break;
+                }
+
+                case OP_RECEIVE_BACKGROUND_FAILURE: {
+                    processBackgroundFailure(action);
+                    break;
+                }
+
+                default:
+                    throw new RuntimeException("Unrecognized opcode in ActionServiceImpl");
             }
 
-            default:
-                throw new RuntimeException("Unrecognized opcode in ActionServiceImpl");
+            action.sendBackgroundActions(DataModel.get().getBackgroundWorkerForActionService());
+        } finally {
+            sActionThreadLock.unlock();
         }
-
-        action.sendBackgroundActions(mBackgroundWorker);
     }
 
     private static final long EXECUTION_TIME_WARN_LIMIT_MS = 1000; // 1 second
     /**
      * Local execution of action on ActionService thread
      */
-    private void executeAction(final Action action) {
+    private static void executeAction(final Action action) {
         action.markBeginExecute();
 
         final LoggingTimer timer = createLoggingTimer(action, "#executeAction");
@@ -285,7 +339,7 @@ public class ActionServiceImpl extends JobIntentService {
     /**
      * Process response on ActionService thread
      */
-    private void processBackgroundResponse(final Action action, final Bundle response) {
+    private static void processBackgroundResponse(final Action action, final Bundle response) {
         final LoggingTimer timer = createLoggingTimer(action, "#processBackgroundResponse");
         timer.start();
 
@@ -297,7 +351,7 @@ public class ActionServiceImpl extends JobIntentService {
     /**
      * Process failure on ActionService thread
      */
-    private void processBackgroundFailure(final Action action) {
+    private static void processBackgroundFailure(final Action action) {
         final LoggingTimer timer = createLoggingTimer(action, "#processBackgroundFailure");
         timer.start();
 
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.android.messaging.util.DebugUtils;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of action processing, kept per action class and phase. Each histogram
+ * uses power-of-two millisecond buckets held in an {@link AtomicLongArray}, so recording a
+ * sample takes no locks and, once the first sample for a class is in, allocates nothing.
+ * Parcel size and marshalling cost are tracked per action class in the same way, but only
+ * when debug instrumentation is enabled, see {@link DebugUtils#isDebugEnabled}.
+ */
+public class ActionTimings {
+    /**
+     * Phases of action processing that are timed
+     */
+    static final int PHASE_QUEUE_WAIT = 0; // start() until executeAction begins
+    static final int PHASE_EXECUTE = 1; // executeAction
+    static final int PHASE_BACKGROUND_WAIT = 2; // queued to background worker until it starts
+    static final int PHASE_BACKGROUND_WORK = 3; // doBackgroundWork
+    static final int PHASE_COMPLETION = 4; // background completion queued until processed
+    private static final int PHASE_COUNT = 5;
+
+    private static final String[] PHASE_NAMES = {
+            "queue_wait", "execute", "background_wait", "background_work", "completion" };
+
+    // Bucket 0 holds 0ms samples, bucket i holds samples in [2^(i-1), 2^i) ms and the last
+    // bucket everything from 2^(BUCKET_COUNT-2) ms (~65s) up
+    private static final int BUCKET_COUNT = 18;
+    private static final int SLOT_COUNT = BUCKET_COUNT + 2;
+    private static final int SLOT_TOTAL = BUCKET_COUNT;
+    private static final int SLOT_MAX = BUCKET_COUNT + 1;
+
+    /**
+     * Columns of the cursor returned by {@link #query}
+     */
+    public static final String COLUMN_ACTION = "action";
+    public static final String COLUMN_PHASE = "phase";
+    public static final String COLUMN_COUNT = "count";
+    public static final String COLUMN_MEAN_MS = "mean_ms";
+    public static final String COLUMN_P50_MS = "p50_ms";
+    public static final String COLUMN_P90_MS = "p90_ms";
+    public static final String COLUMN_P99_MS = "p99_ms";
+    public static final String COLUMN_MAX_MS = "max_ms";
+    private static final String[] COLUMNS = { COLUMN_ACTION, COLUMN_PHASE, COLUMN_COUNT,
+            COLUMN_MEAN_MS, COLUMN_P50_MS, COLUMN_P90_MS, COLUMN_P99_MS, COLUMN_MAX_MS };
+
+    // Histogram slots for all phases of an action class, indexed by phase * SLOT_COUNT + slot
+    private static final ConcurrentHashMap<Class<?>, AtomicLongArray> sHistograms =
+            new ConcurrentHashMap<>();
+
+    // Parcel statistics are only collected when debug instrumentation was enabled at startup,
+    // so that production parcelling pays no clock reads or counter updates
+    static final boolean PARCEL_STATS_ENABLED = DebugUtils.isDebugEnabled();
+
+    // Parcel statistics of an action class. Bundle contents are unparceled lazily on first
+    // access, so read times only cover copying the parceled bundle.
+    private static final int PARCEL_WRITE_COUNT = 0;
+    private static final int PARCEL_WRITE_BYTES = 1;
+    private static final int PARCEL_WRITE_MAX_BYTES = 2;
+    private static final int PARCEL_WRITE_NANOS = 3;
+    private static final int PARCEL_READ_COUNT = 4;
+    private static final int PARCEL_READ_NANOS = 5;
+    private static final int PARCEL_SLOT_COUNT = 6;
+    private static final ConcurrentHashMap<Class<?>, AtomicLongArray> sParcelStats =
+            new ConcurrentHashMap<>();
+
+    private ActionTimings() {
+    }
+
+    /**
+     * Record the duration of a phase of action processing
+     */
+    static void record(final Action action, final int phase, final long elapsedMillis) {
+        if (elapsedMillis < 0) {
+            return;
+        }
+        final Class<?> actionClass = action.getClass();
+        AtomicLongArray histogram = sHistograms.get(actionClass);
+        if (histogram == null) {
+            sHistograms.putIfAbsent(actionClass, new AtomicLongArray(PHASE_COUNT * SLOT_COUNT));
+            histogram = sHistograms.get(actionClass);
+        }
+        final int base = phase * SLOT_COUNT;
+        histogram.incrementAndGet(base + getBucket(elapsedMillis));
+        histogram.addAndGet(base + SLOT_TOTAL, elapsedMillis);
+        long max = histogram.get(base + SLOT_MAX);
+        while (elapsedMillis > max && !histogram.compareAndSet(base + SLOT_MAX, max,
+                elapsedMillis)) {
+            max = histogram.get(base + SLOT_MAX);
+        }
+    }
+
+    /**
+     * Record an action being written to a parcel, e.g. to be scheduled or to fall back to the
+     * JobIntentService path
+     */
+    static void recordParcelWrite(final Action action, final int bytes,
+            final long elapsedNanos) {
+        final AtomicLongArray stats = getParcelStats(action);
+        stats.incrementAndGet(PARCEL_WRITE_COUNT);
+        stats.addAndGet(PARCEL_WRITE_BYTES, bytes);
+        stats.addAndGet(PARCEL_WRITE_NANOS, elapsedNanos);
+        long max = stats.get(PARCEL_WRITE_MAX_BYTES);
+        while (bytes > max && !stats.compareAndSet(PARCEL_WRITE_MAX_BYTES, max, bytes)) {
+            max = stats.get(PARCEL_WRITE_MAX_BYTES);
+        }
+    }
+
+    /**
+     * Record an action being read back from a parcel
+     */
+    static void recordParcelRead(final Action action, final long elapsedNanos) {
+        final AtomicLongArray stats = getParcelStats(action);
+        stats.incrementAndGet(PARCEL_READ_COUNT);
+        stats.addAndGet(PARCEL_READ_NANOS, elapsedNanos);
+    }
+
+    private static AtomicLongArray getParcelStats(final Action action) {
+        final Class<?> actionClass = action.getClass();
+        AtomicLongArray stats = sParcelStats.get(actionClass);
+        if (stats == null) {
+            sParcelStats.putIfAbsent(actionClass, new AtomicLongArray(PARCEL_SLOT_COUNT));
+            stats = sParcelStats.get(actionClass);
+        }
+        return stats;
+    }
+
+    private static int getBucket(final long elapsedMillis) {
+        return Math.min(64 - Long.numberOfLeadingZeros(elapsedMillis), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile of the samples
+     */
+    private static long getPercentile(final long[] buckets, final long count,
+            final int percentile) {
+        final long target = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets[bucket];
+            if (seen >= target) {
+                return bucket == 0 ? 0 : (1L << bucket) - 1;
+            }
+        }
+        return (1L << (BUCKET_COUNT - 1)) - 1;
+    }
+
+    /**
+     * Visit a snapshot of every histogram that has samples
+     */
+    private interface HistogramVisitor {
+        void visit(String action, String phase, long count, long mean, long p50, long p90,
+                long p99, long max);
+    }
+
+    private static void forEachHistogram(final HistogramVisitor visitor) {
+        final ArrayList<Map.Entry<Class<?>, AtomicLongArray>> entries =
+                new ArrayList<>(sHistograms.entrySet());
+        Collections.sort(entries, (lhs, rhs) ->
+                lhs.getKey().getSimpleName().compareTo(rhs.getKey().getSimpleName()));
+        final long[] buckets = new long[BUCKET_COUNT];
+        for (final Map.Entry<Class<?>, AtomicLongArray> entry : entries) {
+            final AtomicLongArray histogram = entry.getValue();
+            for (int phase = 0; phase < PHASE_COUNT; phase++) {
+                final int base = phase * SLOT_COUNT;
+                long count = 0;
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    buckets[bucket] = histogram.get(base + bucket);
+                    count += buckets[bucket];
+                }
+                if (count == 0) {
+                    continue;
+                }
+                visitor.visit(entry.getKey().getSimpleName(), PHASE_NAMES[phase], count,
+                        histogram.get(base + SLOT_TOTAL) / count,
+                        getPercentile(buckets, count, 50),
+                        getPercentile(buckets, count, 90),
+                        getPercentile(buckets, count, 99),
+                        histogram.get(base + SLOT_MAX));
+            }
+        }
+    }
+
+    /**
+     * Dump all histograms in a human readable form. Percentiles are bucket upper bounds.
+     */
+    public static void dump(final PrintWriter writer) {
+        writer.println("Action timings (ms):");
+        forEachHistogram((action, phase, count, mean, p50, p90, p99, max) ->
+                writer.println("  " + action + " " + phase + ": count=" + count + " mean=" + mean
+                        + " p50<=" + p50 + " p90<=" + p90 + " p99<=" + p99 + " max=" + max));
+
+        if (!PARCEL_STATS_ENABLED) {
+            return;
+        }
+        writer.println("Action parcels:");
+        final ArrayList<Map.Entry<Class<?>, AtomicLongArray>> entries =
+                new ArrayList<>(sParcelStats.entrySet());
+        Collections.sort(entries, (lhs, rhs) ->
+                lhs.getKey().getSimpleName().compareTo(rhs.getKey().getSimpleName()));
+        for (final Map.Entry<Class<?>, AtomicLongArray> entry : entries) {
+            final AtomicLongArray stats = entry.getValue();
+            final long writes = stats.get(PARCEL_WRITE_COUNT);
+            final long reads = stats.get(PARCEL_READ_COUNT);
+            writer.println("  " + entry.getKey().getSimpleName()
+                    + ": writes=" + writes
+                    + " mean_bytes=" + (writes == 0 ? 0 : stats.get(PARCEL_WRITE_BYTES) / writes)
+                    + " max_bytes=" + stats.get(PARCEL_WRITE_MAX_BYTES)
+                    + " mean_write_us="
+                    + (writes == 0 ? 0 : stats.get(PARCEL_WRITE_NANOS) / writes / 1000)
+                    + " reads=" + reads
+                    + " mean_read_us="
+                    + (reads == 0 ? 0 : stats.get(PARCEL_READ_NANOS) / reads / 1000));
+        }
+    }
+
+    /**
+     * Snapshot of all histograms as a cursor with one row per action class and phase
+     */
+    public static Cursor query() {
+        final MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        forEachHistogram((action, phase, count, mean, p50, p90, p99, max) ->
+                cursor.addRow(new Object[] { action, phase, count, mean, p50, p90, p99, max }));
+        return cursor;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.android.messaging.Factory;
+import com.android.messaging.util.LogUtil;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of threads running {@link Action#doBackgroundWork} in-process for actions that
+ * opt in through {@link Action#canRunInPool}. Background actions with the same ordering key
+ * (see {@link Action#getBackgroundOrderingKey}) run one at a time in the order they were
+ * queued, while actions with different keys run in parallel. When all threads are busy,
+ * interactive work is started ahead of bulk work and bulk work yields its thread between
+ * batches.
+ */
+class BackgroundWorkerPool {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Ordering key shared by all actions that do not declare one, keeping them serialized.
+    // Sync relies on this to never run concurrently with conversation and message deletes;
+    // BackgroundWorkerService also serializes this work with the service thread.
+    static final String DEFAULT_ORDERING_KEY = "default";
+
+    private static final int POOL_SIZE = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Upper bound on queued background work. Beyond this callers fall back to the
+     * JobIntentService path rather than growing the in-memory queues without limit.
+     */
+    private static final int MAX_QUEUED_WORK = 1000;
+
+    // Safety net in case a worker stops releasing the wake lock
+    private static final long WAKE_LOCK_TIMEOUT_MS = 10 * 60 * 1000L;
+    private static final String WAKE_LOCK_ID = "bugle_background_worker_wakelock";
+
+    private static final BackgroundWorkerPool sInstance = new BackgroundWorkerPool();
+
+    static BackgroundWorkerPool get() {
+        return sInstance;
+    }
+
+    /**
+     * Background action waiting for its ordering key to become free
+     */
+    private static class Work {
+        final Action action;
+        final long queuedTimeMillis;
+
+        Work(final Action action, final long queuedTimeMillis) {
+            this.action = action;
+            this.queuedTimeMillis = queuedTimeMillis;
+        }
+    }
+
+    /**
+     * Drains the pending work of a single ordering key on a pool thread. Runners waiting for a
+     * thread are started interactive first, then in the order they were created.
+     */
+    private class KeyRunner implements Runnable, Comparable<KeyRunner> {
+        private final String mKey;
+        private final int mPriority;
+        private final long mSequence;
+
+        KeyRunner(final String key, final int priority) {
+            mKey = key;
+            mPriority = priority;
+            mSequence = mRunnerSequence.incrementAndGet();
+        }
+
+        @Override
+        public int compareTo(final KeyRunner other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                final Work work;
+                synchronized (mLock) {
+                    final ArrayDeque<Work> queue = mPendingByKey.get(mKey);
+                    final Work next = queue.peek();
+                    if (next == null) {
+                        // Nothing left for this key; the next queued action starts a new runner
+                        mPendingByKey.remove(mKey);
+                        return;
+                    }
+                    final int priority = next.action.getPriority();
+                    final Runnable waiting = mExecutor.getQueue().peek();
+                    if (waiting instanceof KeyRunner
+                            && ((KeyRunner) waiting).mPriority < priority) {
+                        // Yield the thread to interactive work between bulk batches. The key
+                        // stays owned by the new runner so its work remains in order.
+                        mExecutor.execute(new KeyRunner(mKey, priority));
+                        return;
+                    }
+                    work = queue.poll();
+                }
+                mQueueDepth.decrementAndGet();
+                mActiveCount.incrementAndGet();
+                final long waitMillis = SystemClock.elapsedRealtime() - work.queuedTimeMillis;
+                mTotalWaitMillis.addAndGet(waitMillis);
+                updateMaxWait(waitMillis);
+                mStartedCount.incrementAndGet();
+                try {
+                    BackgroundWorkerService.doBackgroundWork(work.action, 0);
+                } finally {
+                    mActiveCount.decrementAndGet();
+                    releaseWakeLock();
+                }
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    // Pending work per ordering key; a key is present while a runner owns it
+    private final HashMap<String, ArrayDeque<Work>> mPendingByKey = new HashMap<>();
+    private final AtomicLong mRunnerSequence = new AtomicLong();
+    private final ThreadPoolExecutor mExecutor;
+    private PowerManager.WakeLock mWakeLock;
+
+    private final AtomicInteger mQueueDepth = new AtomicInteger();
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+    private final AtomicLong mStartedCount = new AtomicLong();
+    private final AtomicLong mTotalWaitMillis = new AtomicLong();
+    private final AtomicLong mMaxWaitMillis = new AtomicLong();
+
+    private BackgroundWorkerPool() {
+        mExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                runnable -> new Thread(runnable, "BackgroundWorkerPool"));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue an action for background work
+     * @return false if the action could not be queued and the caller needs to use the
+     *         JobIntentService path instead
+     */
+    boolean queue(final Action action) {
+        if (mQueueDepth.get() >= MAX_QUEUED_WORK) {
+            LogUtil.w(TAG, "BackgroundWorkerPool: queue full, falling back to worker service");
+            return false;
+        }
+        String key = action.getBackgroundOrderingKey();
+        if (key == null) {
+            key = DEFAULT_ORDERING_KEY;
+        }
+        final Work work = new Work(action, SystemClock.elapsedRealtime());
+        boolean startRunner = false;
+        synchronized (mLock) {
+            ensureWakeLockLocked();
+            mWakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+            ArrayDeque<Work> queue = mPendingByKey.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                mPendingByKey.put(key, queue);
+                startRunner = true;
+            }
+            queue.add(work);
+            mQueueDepth.incrementAndGet();
+        }
+        if (startRunner) {
+            mExecutor.execute(new KeyRunner(key, action.getPriority()));
+        }
+        return true;
+    }
+
+    /**
+     * Number of background actions waiting to start
+     */
+    int getQueueDepth() {
+        return mQueueDepth.get();
+    }
+
+    /**
+     * Number of background actions currently running
+     */
+    int getActiveCount() {
+        return mActiveCount.get();
+    }
+
+    /**
+     * Number of background actions that have been started by the pool
+     */
+    long getStartedCount() {
+        return mStartedCount.get();
+    }
+
+    /**
+     * Average time in ms that started background actions waited in the queue
+     */
+    long getAverageWaitMillis() {
+        final long count = mStartedCount.get();
+        return count == 0 ? 0 : mTotalWaitMillis.get() / count;
+    }
+
+    /**
+     * Longest time in ms that a started background action waited in the queue
+     */
+    long getMaxWaitMillis() {
+        return mMaxWaitMillis.get();
+    }
+
+    private void updateMaxWait(final long waitMillis) {
+        long max = mMaxWaitMillis.get();
+        while (waitMillis > max && !mMaxWaitMillis.compareAndSet(max, waitMillis)) {
+            max = mMaxWaitMillis.get();
+        }
+    }
+
+    private void ensureWakeLockLocked() {
+        if (mWakeLock == null) {
+            final Context context = Factory.get().getApplicationContext();
+            final PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_ID);
+            mWakeLock.setReferenceCounted(true);
+        }
+    }
+
+    private void releaseWakeLock() {
+        try {
+            mWakeLock.release();
+        } catch (final RuntimeException e) {
+            // The wake lock timed out while the work was running
+            LogUtil.w(TAG, "BackgroundWorkerPool: wake lock already released");
+        }
+    }
+}
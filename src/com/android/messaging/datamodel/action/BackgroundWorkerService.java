@@ -46,19 +46,24 @@ public class BackgroundWorkerService extends JobIntentService {
      */
     public static final int JOB_ID = 1001;
 
-    private final ActionService mHost;
-
     public BackgroundWorkerService() {
         super();
-        mHost = DataModel.get().getActionService();
     }
 
+    // Held while running background work without an ordering key, so that such work never
+    // runs concurrently on the service and on the BackgroundWorkerPool
+    private static final Object sDefaultOrderingLock = new Object();
+
     /**
-     * Queue a list of requests from action service to this worker
+     * Queue a list of requests from action service to this worker. Actions that allow it are
+     * run by the in-process {@link BackgroundWorkerPool} unless it cannot accept more work;
+     * everything else goes to this service.
      */
     public static void queueBackgroundWork(final List<Action> actions) {
         for (final Action action : actions) {
-            startServiceWithAction(action, 0);
+            if (!action.canRunInPool() || !BackgroundWorkerPool.get().queue(action)) {
+                startServiceWithAction(action, 0);
+            }
         }
     }
 
@@ -112,9 +117,20 @@ public class BackgroundWorkerService extends JobIntentService {
     }
 
     /**
-     * Local execution of background work for action on ActionService thread
+     * Local execution of background work for action on a background worker thread
      */
-    private void doBackgroundWork(final Action action, final int attempt) {
+    static void doBackgroundWork(final Action action, final int attempt) {
+        if (action.getBackgroundOrderingKey() == null) {
+            synchronized (sDefaultOrderingLock) {
+                runBackgroundWork(action);
+            }
+        } else {
+            runBackgroundWork(action);
+        }
+    }
+
+    private static void runBackgroundWork(final Action action) {
+        final ActionService host = DataModel.get().getActionService();
         action.markBackgroundWorkStarting();
         Bundle response = null;
         try {
@@ -126,13 +142,13 @@ public class BackgroundWorkerService extends JobIntentService {
 
             timer.stopAndLog();
             action.markBackgroundCompletionQueued();
-            mHost.handleResponseFromBackgroundWorker(action, response);
+            host.handleResponseFromBackgroundWorker(action, response);
         } catch (final Exception exception) {
             final boolean retry = false;
             LogUtil.e(TAG, "Error in background worker", exception);
             Assert.fail("Unexpected error in background worker - abort");
             action.markBackgroundCompletionQueued();
-            mHost.handleFailureFromBackgroundWorker(action, exception);
+            host.handleFailureFromBackgroundWorker(action, exception);
         }
     }
 }
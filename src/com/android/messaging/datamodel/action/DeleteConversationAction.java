@@ -174,6 +174,16 @@ public class DeleteConversationAction extends Action implements Parcelable {
         }
     }
 
+    @Override
+    protected int getPriority() {
+        return PRIORITY_BULK;
+    }
+
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         requestBackgroundWork();
@@ -108,6 +108,11 @@ public class DeleteMessageAction extends Action implements Parcelable {
     /**
      * Delete the message.
      */
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         requestBackgroundWork();
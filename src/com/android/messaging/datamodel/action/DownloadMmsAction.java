@@ -232,6 +232,11 @@ public class DownloadMmsAction extends Action implements Parcelable {
         }
     }
 
+    @Override
+    protected String getBackgroundOrderingKey() {
+        return getConversationOrderingKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Bundle doBackgroundWork() {
         final Context context = Factory.get().getApplicationContext();
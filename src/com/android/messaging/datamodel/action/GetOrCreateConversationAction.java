@@ -91,6 +91,11 @@ public class GetOrCreateConversationAction extends Action implements Parcelable
     /**
      * Lookup the conversation or create a new one.
      */
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
@@ -30,6 +30,7 @@ import com.android.messaging.datamodel.DatabaseHelper;
 import com.android.messaging.datamodel.DatabaseHelper.MessageColumns;
 import com.android.messaging.datamodel.DatabaseWrapper;
 import com.android.messaging.datamodel.MessagingContentProvider;
+import com.android.messaging.util.ConversationIdSet;
 import com.android.messaging.util.LogUtil;
 
 /**
@@ -38,6 +39,7 @@ import com.android.messaging.util.LogUtil;
 public class MarkAsSeenAction extends Action implements Parcelable {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
     private static final String KEY_CONVERSATION_ID = "conversation_id";
+    private static final String COALESCING_KEY = "MarkAsSeenAction";
 
     /**
      * Mark all messages as seen.
@@ -64,11 +66,39 @@ public class MarkAsSeenAction extends Action implements Parcelable {
         actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
     }
 
+    @Override
+    protected String getCoalescingKey() {
+        return COALESCING_KEY;
+    }
+
+    /**
+     * Pending requests are merged into one covering the union of their conversations. Marking
+     * all messages as seen covers every conversation.
+     */
+    @Override
+    protected boolean coalesceWith(final Action newer) {
+        final String conversationIds = actionParameters.getString(KEY_CONVERSATION_ID);
+        final String newerConversationIds = newer.actionParameters.getString(KEY_CONVERSATION_ID);
+        if (TextUtils.isEmpty(conversationIds) || TextUtils.isEmpty(newerConversationIds)) {
+            actionParameters.putString(KEY_CONVERSATION_ID, null);
+        } else {
+            final ConversationIdSet union = ConversationIdSet.createSet(conversationIds);
+            union.addAll(ConversationIdSet.createSet(newerConversationIds));
+            actionParameters.putString(KEY_CONVERSATION_ID, union.getDelimitedString());
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
-        final String conversationId =
-                actionParameters.getString(KEY_CONVERSATION_ID);
-        final boolean hasSpecificConversation = !TextUtils.isEmpty(conversationId);
+        // May hold several conversation ids if pending requests were coalesced
+        final String conversationIdSet = actionParameters.getString(KEY_CONVERSATION_ID);
+        final boolean hasSpecificConversation = !TextUtils.isEmpty(conversationIdSet);
 
         // Everything in telephony should already have the seen bit set.
         // Possible exception are messages which did not have seen set and
@@ -83,12 +113,15 @@ public class MarkAsSeenAction extends Action implements Parcelable {
             values.put(MessageColumns.SEEN, 1);
 
             if (hasSpecificConversation) {
-                final int count = db.update(DatabaseHelper.MESSAGES_TABLE, values,
-                        MessageColumns.SEEN + " != 1 AND " +
-                                MessageColumns.CONVERSATION_ID + "=?",
-                        new String[] { conversationId });
-                if (count > 0) {
-                    MessagingContentProvider.notifyMessagesChanged(conversationId);
+                for (final String conversationId :
+                        ConversationIdSet.createSet(conversationIdSet)) {
+                    final int count = db.update(DatabaseHelper.MESSAGES_TABLE, values,
+                            MessageColumns.SEEN + " != 1 AND " +
+                                    MessageColumns.CONVERSATION_ID + "=?",
+                            new String[] { conversationId });
+                    if (count > 0) {
+                        MessagingContentProvider.notifyMessagesChanged(conversationId);
+                    }
                 }
             } else {
                 db.update(DatabaseHelper.MESSAGES_TABLE, values,
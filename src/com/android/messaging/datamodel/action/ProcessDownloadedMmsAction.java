@@ -209,6 +209,11 @@ public class ProcessDownloadedMmsAction extends Action {
         return null;
     }
 
+    @Override
+    protected String getBackgroundOrderingKey() {
+        return getConversationOrderingKey(actionParameters.getString(KEY_CONVERSATION_ID));
+    }
+
     @Override
     protected Bundle doBackgroundWork() {
         final Context context = Factory.get().getApplicationContext();
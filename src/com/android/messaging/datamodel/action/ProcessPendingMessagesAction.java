@@ -42,11 +42,16 @@ import com.android.messaging.util.ConnectivityUtil.ConnectivityListener;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.PhoneUtils;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+
 /**
  * Action used to lookup any messages in the pending send/download state and either fail them or
- * retry their action based on subscriptions. This action only initiates one retry at a time for
- * both sending/downloading. Further retries should be triggered by successful sending/downloading
- * of a message, network status change or exponential backoff timer.
+ * retry their action based on subscriptions. This action keeps up to
+ * MAX_CONCURRENT_SENDS_PER_SUBSCRIPTION sends, at most one per conversation, and one download
+ * in flight per subscription.
+ * Further retries should be triggered by successful sending/downloading of a message, network
+ * status change or exponential backoff timer.
  */
 public class ProcessPendingMessagesAction extends Action implements Parcelable {
     private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
@@ -213,8 +218,8 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             return false;
         }
 
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
-        if (toSendMessageId != null) {
+        final ArrayList<String> toSendMessageIds = findNextMessagesToSend(db, now, selfId);
+        if (!toSendMessageIds.isEmpty()) {
             return true;
         } else {
             final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
@@ -248,12 +253,15 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
             return false;
         }
 
-        // Will queue no more than one message to send plus one message to download
-        // This keeps outgoing messages "in order" but allow downloads to happen even if sending
-        // gets blocked until messages time out. Manual resend bumps messages to head of queue.
-        final String toSendMessageId = findNextMessageToSend(db, now, selfId);
+        // Will queue a few messages to send plus one message to download. Sends are queued
+        // oldest first and at most one per conversation is in flight, so outgoing messages stay
+        // "in order" within a conversation and only different conversations send in parallel.
+        // The next message of a conversation is picked up once its send completes. Downloads
+        // can happen even if sending gets blocked until messages time out. Manual resend bumps
+        // messages to head of queue.
+        final ArrayList<String> toSendMessageIds = findNextMessagesToSend(db, now, selfId);
         final String toDownloadMessageId = findNextMessageToDownload(db, now, selfId);
-        if (toSendMessageId != null) {
+        for (final String toSendMessageId : toSendMessageIds) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: Queueing message " + toSendMessageId
                     + " for sending");
             // This could queue nothing
@@ -274,7 +282,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                 succeeded = false;
             }
         }
-        if (toSendMessageId == null && toDownloadMessageId == null) {
+        if (toSendMessageIds.isEmpty() && toDownloadMessageId == null) {
             LogUtil.i(TAG, "ProcessPendingMessagesAction: No messages to send or download");
         }
         return succeeded;
@@ -302,24 +310,40 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
         return null;
     }
 
-    private static String findNextMessageToSend(final DatabaseWrapper db, final long now,
-            final String selfId) {
-        String toSendMessageId = null;
+    /**
+     * Find the oldest pending message of each conversation with no send in flight, up to the
+     * number of free send slots for the subscription, failing any that can no longer be sent
+     * along the way
+     */
+    private static ArrayList<String> findNextMessagesToSend(final DatabaseWrapper db,
+            final long now, final String selfId) {
+        final ArrayList<String> toSendMessageIds = new ArrayList<>();
+        // Conversations that already have a send in flight or queued by this pass
+        final HashSet<String> busyConversationIds = new HashSet<>();
         Cursor cursor = null;
         int sendingCnt = 0;
         int pendingCnt = 0;
         int failedCnt = 0;
         db.beginTransaction();
         try {
-            // First check to see if we have any messages already sending
-            sendingCnt = (int) db.queryNumEntries(DatabaseHelper.MESSAGES_TABLE,
+            // First check to see if we have any messages already sending and in which
+            // conversations
+            cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                    new String[] { DatabaseHelper.MessageColumns.CONVERSATION_ID },
                     DatabaseHelper.MessageColumns.STATUS + " IN (?, ?) AND "
                     + DatabaseHelper.MessageColumns.SELF_PARTICIPANT_ID + " =? ",
                     new String[] {
                         Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_SENDING),
                         Integer.toString(MessageData.BUGLE_STATUS_OUTGOING_RESENDING),
-                        selfId}
-                    );
+                        selfId},
+                    null,
+                    null,
+                    null);
+            sendingCnt = cursor.getCount();
+            while (cursor.moveToNext()) {
+                busyConversationIds.add(cursor.getString(0));
+            }
+            cursor.close();
 
             // Look for messages we could send
             cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
@@ -360,12 +384,18 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     BugleDatabaseOperations.updateMessageRow(db, message.getMessageId(), values);
                     MessagingContentProvider.notifyMessagesChanged(message.getConversationId());
                 } else {
-                    // If no messages currently sending
-                    if (sendingCnt == 0) {
+                    // If there is a free send slot and nothing else is sending in this
+                    // conversation; later messages in a busy conversation wait their turn
+                    if (sendingCnt + toSendMessageIds.size()
+                            < BugleGservicesKeys.MAX_CONCURRENT_SENDS_PER_SUBSCRIPTION_DEFAULT
+                            && busyConversationIds.add(message.getConversationId())) {
                         // Send this message
-                        toSendMessageId = message.getMessageId();
+                        toSendMessageIds.add(message.getMessageId());
+                    }
+                    if (sendingCnt + toSendMessageIds.size()
+                            >= BugleGservicesKeys.MAX_CONCURRENT_SENDS_PER_SUBSCRIPTION_DEFAULT) {
+                        break;
                     }
-                    break;
                 }
             }
             db.setTransactionSuccessful();
@@ -383,7 +413,7 @@ public class ProcessPendingMessagesAction extends Action implements Parcelable {
                     + failedCnt + " failed messages");
         }
 
-        return toSendMessageId;
+        return toSendMessageIds;
     }
 
     private static String findNextMessageToDownload(final DatabaseWrapper db, final long now,
@@ -80,6 +80,11 @@ public class ReadDraftDataAction extends Action implements Parcelable {
         }
     }
 
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.provider.Settings;
+
+import com.android.messaging.Factory;
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.DatabaseHelper;
+import com.android.messaging.datamodel.DatabaseHelper.ScheduledActionColumns;
+import com.android.messaging.datamodel.DatabaseWrapper;
+import com.android.messaging.util.LogUtil;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent journal of actions scheduled to start after a delay. Rather than one alarm per
+ * request code, a single wake-up alarm is kept for the earliest due action and everything due
+ * by then is started as one batch. The journal survives process death and reboots; the alarm
+ * is re-armed from it when the application starts.
+ * <p>
+ * Due times are kept in elapsed realtime so that wall clock changes do not shift retries. As
+ * elapsed realtime restarts on boot, each entry records the boot it was scheduled in and
+ * entries left from an earlier boot are due right away. Actions are journaled as their class
+ * name and parameters rather than as parcels, whose format is not stable across updates, so
+ * only parameters of the types supported by {@link #encodeParameters} can be journaled.
+ */
+class ScheduledActionJournal {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    // Actions due within this window of the alarm are started in the same batch so that
+    // retries scheduled close together do not each wake the device
+    private static final long BATCH_WINDOW_MS = 2000;
+
+    private static final int ALARM_REQUEST_CODE = 0;
+
+    private static final String[] PROJECTION = new String[] {
+            ScheduledActionColumns._ID,
+            ScheduledActionColumns.ACTION_CLASS,
+            ScheduledActionColumns.PARAMETERS,
+    };
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_ACTION_CLASS = 1;
+    private static final int INDEX_PARAMETERS = 2;
+
+    // Parameter types in the JSON encoding of action parameters
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_VALUE = "value";
+    private static final String TYPE_STRING = "string";
+    private static final String TYPE_INT = "int";
+    private static final String TYPE_LONG = "long";
+    private static final String TYPE_BOOLEAN = "boolean";
+    private static final String TYPE_DOUBLE = "double";
+
+    // Journal updates may be requested from the main thread, so they are applied in order on
+    // a dedicated thread
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Object sLock = new Object();
+
+    /**
+     * Add, replace or (with a delay of Long.MAX_VALUE) remove the action for a request code
+     */
+    static void schedule(final Action action, final int requestCode, final long delayMs) {
+        final String parameters = delayMs < Long.MAX_VALUE
+                ? encodeParameters(action.actionParameters) : null;
+        final String actionClass = action.getClass().getName();
+        final long dueTime = SystemClock.elapsedRealtime() + delayMs;
+        sExecutor.execute(() -> {
+            synchronized (sLock) {
+                final DatabaseWrapper db = DataModel.get().getDatabase();
+                if (parameters != null) {
+                    final ContentValues values = new ContentValues();
+                    values.put(ScheduledActionColumns.REQUEST_CODE, requestCode);
+                    values.put(ScheduledActionColumns.DUE_TIME, dueTime);
+                    values.put(ScheduledActionColumns.BOOT_COUNT, getBootCount());
+                    values.put(ScheduledActionColumns.ACTION_CLASS, actionClass);
+                    values.put(ScheduledActionColumns.PARAMETERS, parameters);
+                    db.insert(DatabaseHelper.SCHEDULED_ACTIONS_TABLE, null, values);
+                } else {
+                    db.delete(DatabaseHelper.SCHEDULED_ACTIONS_TABLE,
+                            ScheduledActionColumns.REQUEST_CODE + "=?",
+                            new String[] { Integer.toString(requestCode) });
+                }
+                updateAlarmLocked(db);
+            }
+        });
+    }
+
+    /**
+     * Re-arm the wake-up alarm from the journal, e.g. after a reboot cleared it. Due times
+     * recorded before the reboot cannot be compared to the elapsed realtime of this boot, so
+     * those actions are made due now.
+     */
+    static void restoreAlarm() {
+        sExecutor.execute(() -> {
+            synchronized (sLock) {
+                final DatabaseWrapper db = DataModel.get().getDatabase();
+                final int bootCount = getBootCount();
+                final ContentValues values = new ContentValues();
+                values.put(ScheduledActionColumns.DUE_TIME, SystemClock.elapsedRealtime());
+                values.put(ScheduledActionColumns.BOOT_COUNT, bootCount);
+                db.update(DatabaseHelper.SCHEDULED_ACTIONS_TABLE, values,
+                        ScheduledActionColumns.BOOT_COUNT + "!=?",
+                        new String[] { Integer.toString(bootCount) });
+                updateAlarmLocked(db);
+            }
+        });
+    }
+
+    /**
+     * Start every action that is due and re-arm the alarm for the next one. Called on the
+     * action thread when the wake-up alarm fires.
+     */
+    static void runDueActions() {
+        final ArrayList<Action> dueActions = new ArrayList<>();
+        synchronized (sLock) {
+            final DatabaseWrapper db = DataModel.get().getDatabase();
+            final String[] selectionArgs = new String[] {
+                    Long.toString(SystemClock.elapsedRealtime() + BATCH_WINDOW_MS) };
+            db.beginTransaction();
+            try {
+                final Cursor cursor = db.query(DatabaseHelper.SCHEDULED_ACTIONS_TABLE,
+                        PROJECTION, ScheduledActionColumns.DUE_TIME + "<=?", selectionArgs,
+                        null, null, ScheduledActionColumns.DUE_TIME);
+                try {
+                    while (cursor.moveToNext()) {
+                        final Action action = createAction(cursor.getString(INDEX_ACTION_CLASS),
+                                cursor.getString(INDEX_PARAMETERS));
+                        if (action != null) {
+                            dueActions.add(action);
+                        } else {
+                            LogUtil.w(TAG, "ScheduledActionJournal: dropping unreadable action "
+                                    + cursor.getLong(INDEX_ID));
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                db.delete(DatabaseHelper.SCHEDULED_ACTIONS_TABLE,
+                        ScheduledActionColumns.DUE_TIME + "<=?", selectionArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            updateAlarmLocked(db);
+        }
+
+        if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+            LogUtil.d(TAG, "ScheduledActionJournal: starting " + dueActions.size()
+                    + " due actions");
+        }
+        for (final Action action : dueActions) {
+            action.start();
+        }
+    }
+
+    /**
+     * Point the single wake-up alarm at the earliest due action, or cancel it if none remain
+     */
+    private static void updateAlarmLocked(final DatabaseWrapper db) {
+        long earliestDueTime = Long.MAX_VALUE;
+        final Cursor cursor = db.query(DatabaseHelper.SCHEDULED_ACTIONS_TABLE,
+                new String[] { "MIN(" + ScheduledActionColumns.DUE_TIME + ")" },
+                null, null, null, null, null);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                earliestDueTime = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        final Context context = Factory.get().getApplicationContext();
+        final Intent intent = ActionServiceImpl.PendingActionReceiver.makeIntent(
+                ActionServiceImpl.OP_RUN_SCHEDULED_ACTIONS);
+        final PendingIntent pendingIntent = PendingIntent.getBroadcast(context,
+                ALARM_REQUEST_CODE, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        final AlarmManager mgr = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (earliestDueTime < Long.MAX_VALUE) {
+            mgr.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, earliestDueTime, pendingIntent);
+        } else {
+            mgr.cancel(pendingIntent);
+        }
+    }
+
+    private static int getBootCount() {
+        return Settings.Global.getInt(Factory.get().getApplicationContext().getContentResolver(),
+                Settings.Global.BOOT_COUNT, 0);
+    }
+
+    /**
+     * Encode action parameters as JSON, keeping the type of each value so that it can be put
+     * back into a bundle as is
+     */
+    private static String encodeParameters(final Bundle parameters) {
+        final JSONObject encoded = new JSONObject();
+        try {
+            for (final String key : parameters.keySet()) {
+                final Object value = parameters.get(key);
+                final String type;
+                if (value instanceof String) {
+                    type = TYPE_STRING;
+                } else if (value instanceof Integer) {
+                    type = TYPE_INT;
+                } else if (value instanceof Long) {
+                    type = TYPE_LONG;
+                } else if (value instanceof Boolean) {
+                    type = TYPE_BOOLEAN;
+                } else if (value instanceof Double) {
+                    type = TYPE_DOUBLE;
+                } else {
+                    throw new IllegalArgumentException("ScheduledActionJournal: cannot journal "
+                            + "parameter " + key + " of type "
+                            + (value == null ? null : value.getClass().getName()));
+                }
+                encoded.put(key, new JSONObject().put(KEY_TYPE, type).put(KEY_VALUE, value));
+            }
+        } catch (final JSONException e) {
+            throw new IllegalArgumentException("ScheduledActionJournal: cannot encode parameters",
+                    e);
+        }
+        return encoded.toString();
+    }
+
+    private static Bundle decodeParameters(final String parameters) throws JSONException {
+        final Bundle decoded = new Bundle();
+        final JSONObject encoded = new JSONObject(parameters);
+        final Iterator<String> keys = encoded.keys();
+        while (keys.hasNext()) {
+            final String key = keys.next();
+            final JSONObject value = encoded.getJSONObject(key);
+            final String type = value.getString(KEY_TYPE);
+            switch (type) {
+                case TYPE_STRING:
+                    decoded.putString(key, value.getString(KEY_VALUE));
+                    break;
+                case TYPE_INT:
+                    decoded.putInt(key, value.getInt(KEY_VALUE));
+                    break;
+                case TYPE_LONG:
+                    decoded.putLong(key, value.getLong(KEY_VALUE));
+                    break;
+                case TYPE_BOOLEAN:
+                    decoded.putBoolean(key, value.getBoolean(KEY_VALUE));
+                    break;
+                case TYPE_DOUBLE:
+                    decoded.putDouble(key, value.getDouble(KEY_VALUE));
+                    break;
+                default:
+                    throw new JSONException("Unknown parameter type " + type);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Recreate a journaled action through its Parcelable creator. The parcel only lives in
+     * memory and has the layout written by {@link Action#writeActionToParcel}.
+     */
+    private static Action createAction(final String actionClass, final String parameters) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            final Bundle decoded = decodeParameters(parameters);
+            final Parcelable.Creator<?> creator = (Parcelable.Creator<?>) Class.forName(
+                    actionClass, true, Action.class.getClassLoader())
+                    .getField("CREATOR").get(null);
+            parcel.writeString(Action.generateUniqueActionKey(
+                    actionClass.substring(actionClass.lastIndexOf('.') + 1)));
+            parcel.writeBundle(decoded);
+            parcel.setDataPosition(0);
+            return (Action) creator.createFromParcel(parcel);
+        } catch (final JSONException | ReflectiveOperationException | RuntimeException e) {
+            // E.g. the action class was removed or renamed since it was journaled
+            LogUtil.e(TAG, "ScheduledActionJournal: failed to recreate " + actionClass, e);
+            return null;
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -188,6 +188,16 @@ public class SendMessageAction extends Action implements Parcelable {
         return null;
     }
 
+    /**
+     * Sends are ordered within a conversation but may run alongside work for others. Sync
+     * tolerates this since the send informs SyncManager of the messages it inserts.
+     */
+    @Override
+    protected String getBackgroundOrderingKey() {
+        final MessageData message = actionParameters.getParcelable(KEY_MESSAGE);
+        return message == null ? null : getConversationOrderingKey(message.getConversationId());
+    }
+
     /**
      * Send message on background worker thread
      */
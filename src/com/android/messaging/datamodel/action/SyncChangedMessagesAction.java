@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LongSparseArray;
+
+import com.android.messaging.datamodel.DataModel;
+import com.android.messaging.datamodel.MessagingContentProvider;
+import com.android.messaging.datamodel.SyncManager;
+import com.android.messaging.sms.DatabaseMessages.LocalDatabaseMessage;
+import com.android.messaging.sms.DatabaseMessages.MmsMessage;
+import com.android.messaging.sms.DatabaseMessages.SmsMessage;
+import com.android.messaging.sms.MmsUtils;
+import com.android.messaging.util.LogUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * Action used to sync individual telephony rows reported by change notifications, instead of
+ * re-diffing a whole time window. Anything it cannot reconcile on its own falls back to the
+ * window sync done by {@link SyncMessagesAction}, which also remains the periodic safety net.
+ */
+public class SyncChangedMessagesAction extends Action implements Parcelable {
+    private static final String TAG = LogUtil.BUGLE_DATAMODEL_TAG;
+
+    private static final String KEY_SMS_IDS = "sms_ids";
+    private static final String KEY_MMS_IDS = "mms_ids";
+    private static final String BUNDLE_KEY_SMS_MESSAGES = "sms_to_add";
+    private static final String BUNDLE_KEY_MMS_MESSAGES = "mms_to_add";
+    private static final String BUNDLE_KEY_MESSAGES_TO_DELETE = "messages_to_delete";
+    private static final String KEY_UPPER_BOUND = "upper_bound";
+
+    // Beyond this many changed rows a window sync is cheaper than looking rows up by id
+    private static final int MAX_CHANGED_ROWS = 500;
+
+    /**
+     * Sync a changed telephony SMS or MMS row
+     * @param isMms - true if the row id is of the MMS table
+     * @param rowId - telephony row id
+     */
+    public static void sync(final boolean isMms, final long rowId) {
+        final SyncChangedMessagesAction action = new SyncChangedMessagesAction();
+        action.actionParameters.putLongArray(isMms ? KEY_MMS_IDS : KEY_SMS_IDS,
+                new long[] { rowId });
+        action.start();
+    }
+
+    private SyncChangedMessagesAction() {
+    }
+
+    @Override
+    protected String getCoalescingKey() {
+        return "SyncChangedMessagesAction";
+    }
+
+    /**
+     * Pending requests are merged into one covering the union of their rows
+     */
+    @Override
+    protected boolean coalesceWith(final Action newer) {
+        actionParameters.putLongArray(KEY_SMS_IDS, union(getIds(this, KEY_SMS_IDS),
+                getIds(newer, KEY_SMS_IDS)));
+        actionParameters.putLongArray(KEY_MMS_IDS, union(getIds(this, KEY_MMS_IDS),
+                getIds(newer, KEY_MMS_IDS)));
+        return true;
+    }
+
+    @Override
+    protected int getPriority() {
+        return PRIORITY_BULK;
+    }
+
+    private static long[] getIds(final Action action, final String key) {
+        final long[] ids = action.actionParameters.getLongArray(key);
+        return ids == null ? new long[0] : ids;
+    }
+
+    private static long[] union(final long[] ids, final long[] moreIds) {
+        final LinkedHashSet<Long> set = new LinkedHashSet<>();
+        for (final long id : ids) {
+            set.add(id);
+        }
+        for (final long id : moreIds) {
+            set.add(id);
+        }
+        final long[] result = new long[set.size()];
+        int i = 0;
+        for (final Long id : set) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
+    @Override
+    protected boolean canRunInPool() {
+        // Only reads telephony; work lost with the process is redone by the next sync
+        return true;
+    }
+
+    @Override
+    protected Object executeAction() {
+        final int changedRows = getIds(this, KEY_SMS_IDS).length
+                + getIds(this, KEY_MMS_IDS).length;
+        if (changedRows > MAX_CHANGED_ROWS) {
+            LogUtil.i(TAG, "SyncChangedMessagesAction: " + changedRows
+                    + " changed rows; falling back to window sync");
+            SyncManager.immediateSync();
+            return null;
+        }
+
+        // Claim the sync so that no window sync can import the same rows concurrently. If a
+        // sync is already running, its final check for recent changes picks these rows up.
+        final SyncManager syncManager = DataModel.get().getSyncManager();
+        final long now = System.currentTimeMillis();
+        if (syncManager.shouldSync(false /* full */, now)) {
+            actionParameters.putLong(KEY_UPPER_BOUND, now);
+            syncManager.startSyncBatch(now);
+            requestBackgroundWork();
+        }
+        return null;
+    }
+
+    @Override
+    protected Bundle doBackgroundWork() {
+        final SyncManager.ThreadInfoCache cache =
+                DataModel.get().getSyncManager().getThreadInfoCache();
+        cache.clear();
+
+        final ArrayList<SmsMessage> smsToAdd = new ArrayList<>();
+        final LongSparseArray<MmsMessage> mmsToAdd = new LongSparseArray<>();
+        final ArrayList<LocalDatabaseMessage> messagesToDelete = new ArrayList<>();
+        final Bundle response = new Bundle();
+        try {
+            SyncCursorPair.diffChangedMessages(DataModel.get().getDatabase(),
+                    getIds(this, KEY_SMS_IDS), getIds(this, KEY_MMS_IDS), smsToAdd, mmsToAdd,
+                    messagesToDelete, cache);
+            MmsUtils.loadMmsParts(mmsToAdd, false/*loadMedia*/);
+            SyncMessagesAction.setMmsSenders(mmsToAdd, cache);
+        } catch (final SQLiteException e) {
+            LogUtil.e(TAG, "SyncChangedMessagesAction: Database exception", e);
+            // No lists in the response tells processBackgroundResponse to fall back
+            return response;
+        } catch (final Exception e) {
+            LogUtil.wtf(TAG, "SyncChangedMessagesAction: unexpected failure", e);
+            return response;
+        }
+
+        final ArrayList<MmsMessage> mmsToAddList = new ArrayList<>();
+        for (int i = 0; i < mmsToAdd.size(); i++) {
+            mmsToAddList.add(mmsToAdd.valueAt(i));
+        }
+        response.putParcelableArrayList(BUNDLE_KEY_SMS_MESSAGES, smsToAdd);
+        response.putParcelableArrayList(BUNDLE_KEY_MMS_MESSAGES, mmsToAddList);
+        response.putParcelableArrayList(BUNDLE_KEY_MESSAGES_TO_DELETE, messagesToDelete);
+        return response;
+    }
+
+    @Override
+    protected Object processBackgroundResponse(final Bundle response) {
+        final SyncManager syncManager = DataModel.get().getSyncManager();
+        if (!syncManager.isSyncing(actionParameters.getLong(KEY_UPPER_BOUND))) {
+            LogUtil.w(TAG, "SyncChangedMessagesAction: Ignoring orphan changed rows sync");
+            return null;
+        }
+        // Any message inserted meanwhile may be one of these rows
+        final boolean dirty = syncManager.isBatchDirty(0);
+        final ArrayList<SmsMessage> smsToAdd =
+                response.getParcelableArrayList(BUNDLE_KEY_SMS_MESSAGES);
+        final ArrayList<MmsMessage> mmsToAdd =
+                response.getParcelableArrayList(BUNDLE_KEY_MMS_MESSAGES);
+        final ArrayList<LocalDatabaseMessage> messagesToDelete =
+                response.getParcelableArrayList(BUNDLE_KEY_MESSAGES_TO_DELETE);
+        syncManager.complete();
+
+        if (dirty || smsToAdd == null) {
+            LogUtil.i(TAG, "SyncChangedMessagesAction: Could not sync changed rows; falling "
+                    + "back to window sync");
+            SyncManager.immediateSync();
+            return null;
+        }
+
+        if (smsToAdd.size() + mmsToAdd.size() + messagesToDelete.size() > 0) {
+            final SyncMessageBatch batch = new SyncMessageBatch(smsToAdd, mmsToAdd,
+                    messagesToDelete, syncManager.getThreadInfoCache());
+            batch.updateLocalDatabase();
+            LogUtil.i(TAG, "SyncChangedMessagesAction: Added " + smsToAdd.size() + " SMS, added "
+                    + mmsToAdd.size() + " MMS, deleted " + messagesToDelete.size()
+                    + " messages.");
+            MessagingContentProvider.notifyEverythingChanged();
+        }
+        return null;
+    }
+
+    @Override
+    protected Object processBackgroundFailure() {
+        final SyncManager syncManager = DataModel.get().getSyncManager();
+        if (syncManager.isSyncing(actionParameters.getLong(KEY_UPPER_BOUND))) {
+            syncManager.isBatchDirty(0);
+            syncManager.complete();
+        }
+        return null;
+    }
+
+    private SyncChangedMessagesAction(final Parcel in) {
+        super(in);
+    }
+
+    public static final Parcelable.Creator<SyncChangedMessagesAction> CREATOR
+            = new Parcelable.Creator<>() {
+        @Override
+        public SyncChangedMessagesAction createFromParcel(final Parcel in) {
+            return new SyncChangedMessagesAction(in);
+        }
+
+        @Override
+        public SyncChangedMessagesAction[] newArray(final int size) {
+            return new SyncChangedMessagesAction[size];
+        }
+    };
+
+    @Override
+    public void writeToParcel(@NonNull final Parcel parcel, final int flags) {
+        writeActionToParcel(parcel, flags);
+    }
+}
@@ -17,9 +17,13 @@
 
 package com.android.messaging.datamodel.action;
 
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.provider.Telephony.Mms;
 import android.provider.Telephony.Sms;
 import androidx.collection.LongSparseArray;
@@ -44,9 +48,12 @@ import com.android.messaging.util.LogUtil;
 import com.google.common.collect.Sets;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 
 /**
  * Class holding a pair of cursors - one for local db and one for telephony provider - allowing
@@ -60,20 +67,16 @@ class SyncCursorPair {
 
     private CursorIterator mLocalCursorIterator;
     private CursorIterator mRemoteCursorsIterator;
+    private long mLocalQueryMillis;
+    private long mRemoteQueryMillis;
 
     private final String mLocalSelection;
     private final String mRemoteSmsSelection;
     private final String mRemoteMmsSelection;
 
     /**
-     * Check if SMS has been synchronized. We compare the counts of messages on both
-     * sides and return true if they are equal.
-     *
-     * Note that this may not be the most reliable way to tell if messages are in sync.
-     * For example, the local misses one message and has one obsolete message.
-     * However, we have background sms sync once a while, also some other events might
-     * trigger a full sync. So we will eventually catch up. And this should be rare to
-     * happen.
+     * Check if SMS has been synchronized. We compare the fingerprints (see {@link Fingerprint})
+     * of messages on both sides and return true if they are equal.
      *
      * @return If sms is in sync with telephony sms/mms providers
      */
@@ -127,10 +130,29 @@ class SyncCursorPair {
 
     void query(final DatabaseWrapper db) {
         // Load local messages in the sync window
+        final long startTimeMillis = SystemClock.elapsedRealtime();
         mLocalCursorIterator = new LocalCursorIterator(db, mLocalSelection);
-        // Load remote messages in the sync window
-        mRemoteCursorsIterator = new RemoteCursorsIterator(mRemoteSmsSelection,
-                mRemoteMmsSelection);
+        final long localEndTimeMillis = SystemClock.elapsedRealtime();
+        mLocalQueryMillis = localEndTimeMillis - startTimeMillis;
+        // Load remote messages in the sync window, reading ahead on a separate thread while
+        // they are compared with local messages
+        mRemoteCursorsIterator = new PrefetchingCursorIterator(new RemoteCursorsIterator(
+                mRemoteSmsSelection, mRemoteMmsSelection));
+        mRemoteQueryMillis = SystemClock.elapsedRealtime() - localEndTimeMillis;
+    }
+
+    /**
+     * @return time in ms {@link #query} took to open the local cursor
+     */
+    long getLocalQueryMillis() {
+        return mLocalQueryMillis;
+    }
+
+    /**
+     * @return time in ms {@link #query} took to open the remote cursors
+     */
+    long getRemoteQueryMillis() {
+        return mRemoteQueryMillis;
     }
 
     boolean isSynchronized(final DatabaseWrapper db) {
@@ -274,6 +296,103 @@ class SyncCursorPair {
         return lastTimestampMillis;
     }
 
+    /**
+     * Reconcile only the given telephony rows with the local database, rather than a whole
+     * time window. A row missing from telephony (or no longer of an imported type) has its local
+     * copies deleted, a row missing locally is added and a row whose timestamp changed is
+     * replaced.
+     */
+    static void diffChangedMessages(final DatabaseWrapper db, final long[] smsIds,
+            final long[] mmsIds, final ArrayList<SmsMessage> smsToAdd,
+            final LongSparseArray<MmsMessage> mmsToAdd,
+            final ArrayList<LocalDatabaseMessage> messagesToDelete,
+            final ThreadInfoCache threadInfoCache) {
+        final Context context = Factory.get().getApplicationContext();
+        final HashMap<String, DatabaseMessage> remoteByUri = new HashMap<>();
+        final ArrayList<String> uris = new ArrayList<>();
+        for (final long smsId : smsIds) {
+            uris.add(ContentUris.withAppendedId(Sms.CONTENT_URI, smsId).toString());
+        }
+        for (final long mmsId : mmsIds) {
+            uris.add(ContentUris.withAppendedId(Mms.CONTENT_URI, mmsId).toString());
+        }
+
+        // Load the remote rows that still exist
+        forEachIdBatch(smsIds, (selection, selectionArgs) -> {
+            try (Cursor cursor = SqliteWrapper.query(context, context.getContentResolver(),
+                    Sms.CONTENT_URI, SmsMessage.getProjection(),
+                    getSmsTypeSelectionSql() + " AND " + Sms._ID + " IN " + selection,
+                    selectionArgs, null /* sortOrder */)) {
+                if (cursor == null) {
+                    // Would otherwise delete the local copies of these messages
+                    throw new RuntimeException("Null cursor from remote SMS query");
+                }
+                while (cursor.moveToNext()) {
+                    final SmsMessage sms = SmsMessage.get(cursor);
+                    remoteByUri.put(sms.getUri(), sms);
+                }
+            }
+        });
+        forEachIdBatch(mmsIds, (selection, selectionArgs) -> {
+            try (Cursor cursor = SqliteWrapper.query(context, context.getContentResolver(),
+                    Mms.CONTENT_URI, MmsMessage.getProjection(),
+                    getMmsTypeSelectionSql() + " AND " + Mms._ID + " IN " + selection,
+                    selectionArgs, null /* sortOrder */)) {
+                if (cursor == null) {
+                    throw new RuntimeException("Null cursor from remote MMS query");
+                }
+                while (cursor.moveToNext()) {
+                    final MmsMessage mms = MmsMessage.get(cursor);
+                    remoteByUri.put(mms.getUri(), mms);
+                }
+            }
+        });
+
+        // Match the local copies against them
+        final String[] uriArray = uris.toArray(new String[uris.size()]);
+        for (int start = 0; start < uriArray.length; start += MmsUtils.MAX_IDS_PER_QUERY) {
+            final int end = Math.min(start + MmsUtils.MAX_IDS_PER_QUERY, uriArray.length);
+            try (Cursor cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                    LocalMessageQuery.PROJECTION,
+                    MessageColumns.SMS_MESSAGE_URI + " IN "
+                            + MmsUtils.getSqlInOperand(end - start),
+                    Arrays.copyOfRange(uriArray, start, end),
+                    null /* groupBy */, null /* having */, null /* orderBy */)) {
+                while (cursor.moveToNext()) {
+                    final LocalDatabaseMessage local = getLocalDatabaseMessage(cursor);
+                    final DatabaseMessage remote = remoteByUri.get(local.getUri());
+                    if (remote != null
+                            && remote.getTimestampInMillis() == local.getTimestampInMillis()) {
+                        // In sync; any further local copy is a duplicate
+                        remoteByUri.remove(local.getUri());
+                    } else {
+                        messagesToDelete.add(local);
+                    }
+                }
+            }
+        }
+
+        // Whatever is left is missing or out of date locally
+        for (final DatabaseMessage remote : remoteByUri.values()) {
+            saveMessageToAdd(smsToAdd, mmsToAdd, remote, threadInfoCache);
+        }
+    }
+
+    private interface IdBatchQuery {
+        void query(String inOperand, String[] selectionArgs);
+    }
+
+    private static void forEachIdBatch(final long[] ids, final IdBatchQuery query) {
+        for (int start = 0; start < ids.length; start += MmsUtils.MAX_IDS_PER_QUERY) {
+            final int end = Math.min(start + MmsUtils.MAX_IDS_PER_QUERY, ids.length);
+            final String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selectionArgs[i - start] = Long.toString(ids[i]);
+            }
+            query.query(MmsUtils.getSqlInOperand(end - start), selectionArgs);
+        }
+    }
+
     DatabaseMessage getLocalMessage() {
         return mLocalCursorIterator.next();
     }
@@ -550,6 +669,109 @@ class SyncCursorPair {
         }
     }
 
+    /**
+     * Pipelined wrapper around another cursor iterator. A producer thread steps through the
+     * source and materializes its messages into a bounded queue which {@link #next} consumes,
+     * so that reading the telephony provider overlaps with the comparison against local
+     * messages. The source is owned by the producer thread once constructed and is closed
+     * there.
+     */
+    private static class PrefetchingCursorIterator implements CursorIterator {
+        // Enough to hide provider latency without reading far past the end of a scan batch
+        private static final int PREFETCH_CAPACITY = 128;
+
+        // Queued by the producer when the source is exhausted or failed
+        private static final Object END_OF_SOURCE = new Object();
+
+        private final CursorIterator mSource;
+        private final int mCount;
+        private final ArrayBlockingQueue<Object> mQueue =
+                new ArrayBlockingQueue<>(PREFETCH_CAPACITY);
+        private final Thread mProducer;
+        private volatile boolean mClosed;
+        private volatile RuntimeException mProducerException;
+        private boolean mExhausted;
+        private int mPosition = -1;
+
+        PrefetchingCursorIterator(final CursorIterator source) {
+            mSource = source;
+            mCount = source.getCount();
+            mProducer = new Thread(this::produce, "SyncCursorPrefetch");
+            mProducer.start();
+        }
+
+        private void produce() {
+            try {
+                DatabaseMessage message;
+                while (!mClosed && (message = mSource.next()) != null) {
+                    mQueue.put(message);
+                }
+            } catch (final InterruptedException e) {
+                // Closed while waiting for the consumer
+            } catch (final RuntimeException e) {
+                LogUtil.e(TAG, "SyncCursorPair: failed to read remote messages", e);
+                mProducerException = e;
+            } finally {
+                mSource.close();
+            }
+            if (!mClosed) {
+                try {
+                    // The consumer keeps draining the queue until it is closed, which
+                    // interrupts us
+                    mQueue.put(END_OF_SOURCE);
+                } catch (final InterruptedException e) {
+                    // Closed
+                }
+            }
+        }
+
+        @Override
+        public DatabaseMessage next() {
+            if (mExhausted) {
+                return null;
+            }
+            final Object item;
+            try {
+                item = mQueue.take();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted reading remote messages", e);
+            }
+            if (item == END_OF_SOURCE) {
+                mExhausted = true;
+                if (mProducerException != null) {
+                    // Abort the scan rather than treating missing remote messages as deleted
+                    throw mProducerException;
+                }
+                return null;
+            }
+            mPosition++;
+            return (DatabaseMessage) item;
+        }
+
+        @Override
+        public int getPosition() {
+            return mPosition;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+            mProducer.interrupt();
+            try {
+                // Wait for the producer to close the source cursors
+                mProducer.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Type selection for importing sms messages. Only SENT and INBOX messages are imported.
      *
@@ -616,7 +838,7 @@ class SyncCursorPair {
         throw new IllegalArgumentException("Cannot get count from " + cursorDesc + " cursor");
     }
 
-    private void saveMessageToAdd(final List<SmsMessage> smsToAdd,
+    private static void saveMessageToAdd(final List<SmsMessage> smsToAdd,
             final LongSparseArray<MmsMessage> mmsToAdd, final DatabaseMessage message,
             final ThreadInfoCache threadInfoCache) {
         long threadId;
@@ -634,14 +856,13 @@ class SyncCursorPair {
     }
 
     /**
-     * Check if SMS has been synchronized. We compare the counts of messages on both
+     * Check if SMS has been synchronized. We compare the fingerprints of messages on both
      * sides and return true if they are equal.
      *
-     * Note that this may not be the most reliable way to tell if messages are in sync.
-     * For example, the local misses one message and has one obsolete message.
-     * However, we have background sms sync once a while, also some other events might
-     * trigger a full sync. So we will eventually catch up. And this should be rare to
-     * happen.
+     * If the telephony provider does not accept the fingerprint aggregates only the counts
+     * are compared, in which case e.g. the local missing one message and having one obsolete
+     * message goes unnoticed. However, we have background sms sync once a while, also some
+     * other events might trigger a full sync. So we will eventually catch up.
      *
      * @return If sms is in sync with telephony sms/mms providers
      */
@@ -649,65 +870,241 @@ class SyncCursorPair {
             final String[] localSelectionArgs, final String smsSelection,
             final String[] smsSelectionArgs, final String mmsSelection,
             final String[] mmsSelectionArgs) {
-        final Context context = Factory.get().getApplicationContext();
-        Cursor localCursor = null;
-        Cursor remoteSmsCursor = null;
-        Cursor remoteMmsCursor = null;
         try {
-            localCursor = db.query(
-                    DatabaseHelper.MESSAGES_TABLE,
-                    COUNT_PROJECTION,
-                    localSelection,
-                    localSelectionArgs,
-                    null/*groupBy*/,
-                    null/*having*/,
-                    null/*orderBy*/);
-            final int localCount = getCountFromCursor(localCursor);
-            remoteSmsCursor = SqliteWrapper.query(
-                    context,
-                    context.getContentResolver(),
-                    Sms.CONTENT_URI,
-                    COUNT_PROJECTION,
-                    smsSelection,
-                    smsSelectionArgs,
-                    null/*orderBy*/);
-            final int smsCount = getCountFromCursor(remoteSmsCursor);
-            remoteMmsCursor = SqliteWrapper.query(
-                    context,
-                    context.getContentResolver(),
-                    Mms.CONTENT_URI,
-                    COUNT_PROJECTION,
-                    mmsSelection,
-                    mmsSelectionArgs,
-                    null/*orderBy*/);
-            final int mmsCount = getCountFromCursor(remoteMmsCursor);
-            final int remoteCount = smsCount + mmsCount;
-            final boolean isInSync = (localCount == remoteCount);
+            final Fingerprint local = queryLocalFingerprint(db, localSelection,
+                    localSelectionArgs);
+            final Fingerprint remote = queryRemoteFingerprint(smsSelection, smsSelectionArgs,
+                    mmsSelection, mmsSelectionArgs);
+            final boolean isInSync = local.matches(remote);
             if (isInSync) {
                 if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
-                    LogUtil.d(TAG, "SyncCursorPair: Same # of local and remote messages = "
-                            + localCount);
+                    LogUtil.d(TAG, "SyncCursorPair: Same local and remote fingerprint " + local);
                 }
             } else {
-                LogUtil.i(TAG, "SyncCursorPair: Not in sync; # local messages = " + localCount
-                        + ", # remote message = " + remoteCount);
+                LogUtil.i(TAG, "SyncCursorPair: Not in sync; local " + local + ", remote "
+                        + remote);
             }
             return isInSync;
         } catch (final Exception e) {
             LogUtil.e(TAG, "SyncCursorPair: failed to query local or remote message counts", e);
             // If something is wrong in querying database, assume we are synced so
             // we don't retry indefinitely
-        } finally {
-            if (localCursor != null) {
-                localCursor.close();
+        }
+        return true;
+    }
+
+    // Windows are not bisected below this size or below a scan batch worth of messages,
+    // where skipping the in sync part saves less than the fingerprint queries cost
+    private static final long MIN_BISECT_WINDOW_MS = 60 * 60 * 1000L;
+
+    /**
+     * Narrow a sync window down to the messages that need scanning. Sync scans from the upper
+     * bound down, so the newest part of the window that is already in sync is skipped by
+     * bisecting on fingerprints until the part holding the newest difference is about one
+     * scan batch.
+     *
+     * @param lowerBound inclusive lower bound of the window (< 0 for none)
+     * @param upperBound exclusive upper bound of the window
+     * @param maxMessagesToScan number of messages a sync batch scans
+     * @return upper bound to scan the window from, or SYNC_COMPLETE if the whole window is
+     *         in sync
+     */
+    static long findUnsynchronizedUpperBound(final DatabaseWrapper db, final long lowerBound,
+            final long upperBound, final int maxMessagesToScan) {
+        if (upperBound < 0) {
+            return upperBound;
+        }
+        try {
+            Fingerprint[] fingerprints =
+                    new SyncCursorPair(lowerBound, upperBound).queryFingerprints(db);
+            if (fingerprints[0].matches(fingerprints[1])) {
+                return SYNC_COMPLETE;
+            }
+            if (!fingerprints[1].complete) {
+                // Equal counts do not tell that a part of the window can be skipped
+                return upperBound;
             }
-            if (remoteSmsCursor != null) {
-                remoteSmsCursor.close();
+            long lower = Math.max(lowerBound, 0);
+            long upper = upperBound;
+            long localCount = fingerprints[0].count;
+            long remoteCount = fingerprints[1].count;
+            int queries = 1;
+            while (upper - lower > MIN_BISECT_WINDOW_MS
+                    && Math.max(localCount, remoteCount) > maxMessagesToScan) {
+                final long middle = lower + (upper - lower) / 2;
+                fingerprints = new SyncCursorPair(middle, upper).queryFingerprints(db);
+                queries++;
+                if (fingerprints[0].matches(fingerprints[1])) {
+                    // Newer half is in sync, so the newest difference is in the older half
+                    upper = middle;
+                    localCount -= fingerprints[0].count;
+                    remoteCount -= fingerprints[1].count;
+                } else {
+                    lower = middle;
+                    localCount = fingerprints[0].count;
+                    remoteCount = fingerprints[1].count;
+                }
             }
-            if (remoteMmsCursor != null) {
-                remoteMmsCursor.close();
+            if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
+                LogUtil.d(TAG, "SyncCursorPair: Messages from " + upper + " to " + upperBound
+                        + " in sync (" + queries + " fingerprint queries)");
             }
+            return upper;
+        } catch (final Exception e) {
+            LogUtil.w(TAG, "SyncCursorPair: failed to bisect sync window", e);
+            // Let the scan of the whole window deal with it
+            return upperBound;
+        }
+    }
+
+    /**
+     * @return local and remote fingerprint of the messages in this window
+     */
+    private Fingerprint[] queryFingerprints(final DatabaseWrapper db) {
+        return new Fingerprint[] {
+                queryLocalFingerprint(db, mLocalSelection, null),
+                queryRemoteFingerprint(mRemoteSmsSelection, null, mRemoteMmsSelection, null) };
+    }
+
+    /**
+     * Summary of the messages in a window: their count, the highest telephony SMS and MMS row
+     * ids and an order independent hash of the row ids and timestamps. Both sides of a window
+     * that is in sync have the same fingerprint, while a missing, extra or re-dated message
+     * changes it.
+     */
+    private static class Fingerprint {
+        long count;
+        long maxSmsId;
+        long maxMmsId;
+        long hash;
+        // False if only the count could be read
+        boolean complete = true;
+
+        boolean matches(final Fingerprint other) {
+            if (count != other.count) {
+                return false;
+            }
+            if (!complete || !other.complete) {
+                return true;
+            }
+            return maxSmsId == other.maxSmsId && maxMmsId == other.maxMmsId
+                    && hash == other.hash;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + (complete ? " max sms=" + maxSmsId + " max mms="
+                    + maxMmsId + " hash=" + hash : "");
+        }
+    }
+
+    // Each message adds ((row id * 2 + is mms) * FINGERPRINT_PRIME + timestamp in ms)
+    // modulo 2^31 - 1 to the hash, which keeps sums over any realistic window from overflowing
+    private static String getFingerprintHashSql(final String rowIdSql, final String isMmsSql,
+            final String timestampSql) {
+        return "sum(((" + rowIdSql + " * 2 + " + isMmsSql + ") * 1000003 + " + timestampSql
+                + ") % 2147483647)";
+    }
+
+    // Telephony row id at the end of the local message uri
+    private static final String LOCAL_ROW_ID_SQL = "CAST(substr("
+            + MessageColumns.SMS_MESSAGE_URI + ", length(rtrim("
+            + MessageColumns.SMS_MESSAGE_URI + ", '0123456789')) + 1) AS INTEGER)";
+    private static final String LOCAL_IS_MMS_SQL =
+            "(" + MessageColumns.PROTOCOL + "!=" + MessageData.PROTOCOL_SMS + ")";
+
+    private static final String[] LOCAL_FINGERPRINT_PROJECTION = new String[] {
+            "count()",
+            "max(CASE WHEN NOT " + LOCAL_IS_MMS_SQL + " THEN " + LOCAL_ROW_ID_SQL + " END)",
+            "max(CASE WHEN " + LOCAL_IS_MMS_SQL + " THEN " + LOCAL_ROW_ID_SQL + " END)",
+            getFingerprintHashSql(LOCAL_ROW_ID_SQL, LOCAL_IS_MMS_SQL,
+                    MessageColumns.RECEIVED_TIMESTAMP),
+    };
+    private static final String[] SMS_FINGERPRINT_PROJECTION = new String[] {
+            "count()",
+            "max(" + Sms._ID + ")",
+            getFingerprintHashSql(Sms._ID, "0", "date"),
+    };
+    private static final String[] MMS_FINGERPRINT_PROJECTION = new String[] {
+            "count()",
+            "max(" + Mms._ID + ")",
+            // MMS db times are in seconds
+            getFingerprintHashSql(Mms._ID, "1", "date * 1000"),
+    };
+
+    // Set once the telephony provider rejected the fingerprint aggregates. A query that merely
+    // returns no cursor, e.g. while the provider restarts, only falls back for that comparison.
+    private static volatile boolean sRemoteFingerprintUnsupported;
+
+    private static Fingerprint queryLocalFingerprint(final DatabaseWrapper db,
+            final String selection, final String[] selectionArgs) {
+        try (Cursor cursor = db.query(DatabaseHelper.MESSAGES_TABLE,
+                LOCAL_FINGERPRINT_PROJECTION, selection, selectionArgs,
+                null/*groupBy*/, null/*having*/, null/*orderBy*/)) {
+            final Fingerprint fingerprint = new Fingerprint();
+            fingerprint.count = getCountFromCursor(cursor);
+            fingerprint.maxSmsId = cursor.getLong(1);
+            fingerprint.maxMmsId = cursor.getLong(2);
+            fingerprint.hash = cursor.getLong(3);
+            return fingerprint;
+        }
+    }
+
+    private static Fingerprint queryRemoteFingerprint(final String smsSelection,
+            final String[] smsSelectionArgs, final String mmsSelection,
+            final String[] mmsSelectionArgs) {
+        final Fingerprint fingerprint = new Fingerprint();
+        boolean rejected = false;
+        if (!sRemoteFingerprintUnsupported) {
+            final ContentResolver resolver =
+                    Factory.get().getApplicationContext().getContentResolver();
+            Cursor smsCursor = null;
+            Cursor mmsCursor = null;
+            try {
+                // Not through SqliteWrapper, which hides a rejected projection as a null cursor
+                smsCursor = resolver.query(Sms.CONTENT_URI, SMS_FINGERPRINT_PROJECTION,
+                        smsSelection, smsSelectionArgs, null/*orderBy*/);
+                mmsCursor = resolver.query(Mms.CONTENT_URI, MMS_FINGERPRINT_PROJECTION,
+                        mmsSelection, mmsSelectionArgs, null/*orderBy*/);
+                if (smsCursor != null && smsCursor.moveToFirst()
+                        && mmsCursor != null && mmsCursor.moveToFirst()) {
+                    fingerprint.count = smsCursor.getInt(0) + mmsCursor.getInt(0);
+                    fingerprint.maxSmsId = smsCursor.getLong(1);
+                    fingerprint.maxMmsId = mmsCursor.getLong(1);
+                    fingerprint.hash = smsCursor.getLong(2) + mmsCursor.getLong(2);
+                    return fingerprint;
+                }
+            } catch (final SQLiteException | IllegalArgumentException e) {
+                LogUtil.w(TAG, "SyncCursorPair: Remote fingerprint query rejected", e);
+                rejected = true;
+            } finally {
+                if (smsCursor != null) {
+                    smsCursor.close();
+                }
+                if (mmsCursor != null) {
+                    mmsCursor.close();
+                }
+            }
+        }
+
+        // Fall back to comparing counts
+        fingerprint.complete = false;
+        fingerprint.count = queryRemoteCount(Sms.CONTENT_URI, smsSelection, smsSelectionArgs)
+                + queryRemoteCount(Mms.CONTENT_URI, mmsSelection, mmsSelectionArgs);
+        if (rejected) {
+            // Counts work, so it was the aggregates that were rejected
+            LogUtil.w(TAG, "SyncCursorPair: Remote fingerprints unsupported; comparing counts");
+            sRemoteFingerprintUnsupported = true;
+        }
+        return fingerprint;
+    }
+
+    private static int queryRemoteCount(final Uri uri, final String selection,
+            final String[] selectionArgs) {
+        final Context context = Factory.get().getApplicationContext();
+        try (Cursor cursor = SqliteWrapper.query(context, context.getContentResolver(), uri,
+                COUNT_PROJECTION, selection, selectionArgs, null/*orderBy*/)) {
+            return getCountFromCursor(cursor);
         }
-        return true;
     }
 }
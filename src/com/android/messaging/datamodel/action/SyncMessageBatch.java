@@ -43,6 +43,7 @@ import com.android.messaging.util.LogUtil;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -53,10 +54,17 @@ import java.util.Locale;
 class SyncMessageBatch {
     private static final String TAG = LogUtil.BUGLE_TAG;
 
+    // Number of messages stored between offers to yield the transaction to other database users
+    private static final int YIELD_INTERVAL = 100;
+
     // Variables used during executeAction
     private final HashSet<String> mConversationsToUpdate;
     // Cache of thread->conversationId map
     private final ThreadInfoCache mCache;
+    // Participant ids resolved in this batch, so that phone number normalization and participant
+    // lookup happen once per sender rather than once per message
+    private final HashMap<Integer, String> mSelfIdBySubId = new HashMap<>();
+    private final HashMap<String, String> mSenderIdByAddress = new HashMap<>();
 
     // Set of SMS messages to add
     private final ArrayList<SmsMessage> mSmsToAdd;
@@ -81,13 +89,21 @@ class SyncMessageBatch {
         final DatabaseWrapper db = DataModel.get().getDatabase();
         db.beginTransaction();
         try {
-            // Store all the SMS messages
+            // Store all the SMS messages. Large batches periodically let readers in; a failure
+            // then leaves the messages stored so far in place, to be matched by the next sync.
+            int stored = 0;
             for (final SmsMessage sms : mSmsToAdd) {
                 storeSms(db, sms);
+                if (++stored % YIELD_INTERVAL == 0) {
+                    yieldTransaction(db);
+                }
             }
             // Store all the MMS messages
             for (final MmsMessage mms : mMmsToAdd) {
                 storeMms(db, mms);
+                if (++stored % YIELD_INTERVAL == 0) {
+                    yieldTransaction(db);
+                }
             }
             // Keep track of conversations with messages deleted
             for (final LocalDatabaseMessage message : mMessagesToDelete) {
@@ -114,6 +130,16 @@ class SyncMessageBatch {
         }
     }
 
+    /**
+     * Offer to yield the transaction. Conversations touched so far are brought up to date first,
+     * so readers and a later failure never see stored messages with stale conversation metadata.
+     */
+    private void yieldTransaction(final DatabaseWrapper db) {
+        updateConversations(db);
+        mConversationsToUpdate.clear();
+        db.yieldTransaction();
+    }
+
     private static String[] messageListToIds(final List<LocalDatabaseMessage> messagesToDelete) {
         final String[] ids = new String[messagesToDelete.size()];
         for (int i = 0; i < ids.length; i++) {
@@ -154,14 +180,9 @@ class SyncMessageBatch {
                     + sms.mThreadId);
             return;
         }
-        final ParticipantData self = ParticipantData.getSelfParticipant(sms.getSubId());
-        final String selfId =
-                BugleDatabaseOperations.getOrCreateParticipantInTransaction(db, self);
-        final ParticipantData sender = isOutgoing ?
-                self :
-                ParticipantData.getFromRawPhoneBySimLocale(otherPhoneNumber, sms.getSubId());
+        final String selfId = getOrCreateSelfId(db, sms.getSubId());
         final String participantId = (isOutgoing ? selfId :
-                BugleDatabaseOperations.getOrCreateParticipantInTransaction(db, sender));
+                getOrCreateSenderId(db, otherPhoneNumber, sms.getSubId()));
 
         final int bugleStatus = bugleStatusForSms(isOutgoing, sms.mType, sms.mStatus);
 
@@ -246,13 +267,9 @@ class SyncMessageBatch {
                     + mms.mThreadId);
             return;
         }
-        final ParticipantData self = ParticipantData.getSelfParticipant(mms.getSubId());
-        final String selfId =
-                BugleDatabaseOperations.getOrCreateParticipantInTransaction(db, self);
-        final ParticipantData sender = isOutgoing ?
-                self : ParticipantData.getFromRawPhoneBySimLocale(senderId, mms.getSubId());
+        final String selfId = getOrCreateSelfId(db, mms.getSubId());
         final String participantId = (isOutgoing ? selfId :
-                BugleDatabaseOperations.getOrCreateParticipantInTransaction(db, sender));
+                getOrCreateSenderId(db, senderId, mms.getSubId()));
 
         final int bugleStatus = MmsUtils.bugleStatusForMms(isOutgoing, isNotification, mms.mType);
 
@@ -283,6 +300,28 @@ class SyncMessageBatch {
         mConversationsToUpdate.add(conversationId);
     }
 
+    private String getOrCreateSelfId(final DatabaseWrapper db, final int subId) {
+        String selfId = mSelfIdBySubId.get(subId);
+        if (selfId == null) {
+            selfId = BugleDatabaseOperations.getOrCreateParticipantInTransaction(db,
+                    ParticipantData.getSelfParticipant(subId));
+            mSelfIdBySubId.put(subId, selfId);
+        }
+        return selfId;
+    }
+
+    private String getOrCreateSenderId(final DatabaseWrapper db, final String address,
+            final int subId) {
+        final String key = subId + ":" + address;
+        String senderId = mSenderIdByAddress.get(key);
+        if (senderId == null) {
+            senderId = BugleDatabaseOperations.getOrCreateParticipantInTransaction(db,
+                    ParticipantData.getFromRawPhoneBySimLocale(address, subId));
+            mSenderIdByAddress.put(key, senderId);
+        }
+        return senderId;
+    }
+
     // TODO: Remove this after we no longer see this crash (b/18375758)
     private static void rethrowSQLiteConstraintExceptionWithDetails(SQLiteConstraintException e,
             DatabaseWrapper db, String messageUri, long threadId, String conversationId,
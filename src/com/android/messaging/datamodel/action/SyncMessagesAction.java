@@ -17,8 +17,6 @@
 
 package com.android.messaging.datamodel.action;
 
-import android.content.Context;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
 import android.os.Parcel;
@@ -29,15 +27,12 @@ import android.provider.Telephony.Mms;
 import androidx.annotation.NonNull;
 import androidx.collection.LongSparseArray;
 
-import com.android.messaging.Factory;
 import com.android.messaging.datamodel.DataModel;
 import com.android.messaging.datamodel.DatabaseWrapper;
 import com.android.messaging.datamodel.MessagingContentProvider;
 import com.android.messaging.datamodel.SyncManager;
 import com.android.messaging.datamodel.SyncManager.ThreadInfoCache;
 import com.android.messaging.datamodel.data.ParticipantData;
-import com.android.messaging.mmslib.SqliteWrapper;
-import com.android.messaging.sms.DatabaseMessages;
 import com.android.messaging.sms.DatabaseMessages.LocalDatabaseMessage;
 import com.android.messaging.sms.DatabaseMessages.MmsMessage;
 import com.android.messaging.sms.DatabaseMessages.SmsMessage;
@@ -46,13 +41,11 @@ import com.android.messaging.util.Assert;
 import com.android.messaging.util.BugleGservicesKeys;
 import com.android.messaging.util.BuglePrefs;
 import com.android.messaging.util.BuglePrefsKeys;
-import com.android.messaging.util.ContentType;
 import com.android.messaging.util.LogUtil;
 import com.android.messaging.util.OsUtil;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * Action used to sync messages from smsmms db to local database
@@ -66,10 +59,22 @@ public class SyncMessagesAction extends Action implements Parcelable {
     private static final String KEY_MAX_UPDATE = "max_update";
     private static final String KEY_LOWER_BOUND = "lower_bound";
     private static final String KEY_UPPER_BOUND = "upper_bound";
+    private static final String KEY_FIRST_BATCH = "first_batch";
+    private static final String KEY_MESSAGE_COST_MICROS = "message_cost_micros";
+    private static final String KEY_RESUMED = "resumed";
+
+    // Batches updating fewer messages are dominated by fixed costs, so they do not refine the
+    // estimate of the cost per message
+    private static final int MIN_MESSAGES_FOR_COST_SAMPLE = 20;
     private static final String BUNDLE_KEY_LAST_TIMESTAMP = "last_timestamp";
     private static final String BUNDLE_KEY_SMS_MESSAGES = "sms_to_add";
     private static final String BUNDLE_KEY_MMS_MESSAGES = "mms_to_add";
     private static final String BUNDLE_KEY_MESSAGES_TO_DELETE = "messages_to_delete";
+    private static final String BUNDLE_KEY_FINGERPRINT_MILLIS = "fingerprint_millis";
+    private static final String BUNDLE_KEY_LOCAL_QUERY_MILLIS = "local_query_millis";
+    private static final String BUNDLE_KEY_REMOTE_QUERY_MILLIS = "remote_query_millis";
+    private static final String BUNDLE_KEY_MERGE_MILLIS = "merge_millis";
+    private static final String BUNDLE_KEY_MMS_LOAD_MILLIS = "mms_load_millis";
 
     /**
      * Start a full sync (backed off a few seconds to avoid pulling sending/receiving messages).
@@ -82,6 +87,12 @@ public class SyncMessagesAction extends Action implements Parcelable {
         // TODO: Could base this off most recent message in db but now should be okay...
         final long startTimestamp = now - smsSyncBackoffTimeMillis;
 
+        final SyncMessagesAction resumed = getResumedSync();
+        if (resumed != null && resumed.actionParameters.getLong(KEY_LOWER_BOUND) < 0) {
+            resumed.start();
+            return;
+        }
+
         final SyncMessagesAction action = new SyncMessagesAction(-1L, startTimestamp,
                 0, startTimestamp);
         action.start();
@@ -115,6 +126,12 @@ public class SyncMessagesAction extends Action implements Parcelable {
             return;
         }
 
+        final SyncMessagesAction resumed = getResumedSync();
+        if (resumed != null) {
+            resumed.start();
+            return;
+        }
+
         final BuglePrefs prefs = BuglePrefs.getApplicationPrefs();
         // Lower bound is end of previous sync
         final long syncLowerBoundTimeMillis = prefs.getLong(BuglePrefsKeys.LAST_SYNC_TIME,
@@ -125,6 +142,46 @@ public class SyncMessagesAction extends Action implements Parcelable {
         action.start();
     }
 
+    /**
+     * Recreate the sync that was in progress when the process died from its checkpoint. It
+     * continues from its last committed batch and, once done, catches up with messages that
+     * arrived since it started like any other sync.
+     * @return the sync to resume or null if none
+     */
+    private static SyncMessagesAction getResumedSync() {
+        final BuglePrefs prefs = BuglePrefs.getApplicationPrefs();
+        final long upperBound = prefs.getLong(BuglePrefsKeys.SYNC_CHECKPOINT_UPPER_BOUND,
+                BuglePrefsKeys.SYNC_CHECKPOINT_UPPER_BOUND_DEFAULT);
+        if (upperBound < 0) {
+            return null;
+        }
+        final long lowerBound = prefs.getLong(BuglePrefsKeys.SYNC_CHECKPOINT_LOWER_BOUND, -1L);
+        final long startTimestamp = prefs.getLong(BuglePrefsKeys.SYNC_CHECKPOINT_START_TIME,
+                upperBound);
+        LogUtil.i(TAG, "SyncMessagesAction: Resuming sync started at " + startTimestamp
+                + " for messages from " + lowerBound + " to " + upperBound);
+        final SyncMessagesAction action = new SyncMessagesAction(lowerBound, upperBound, 0,
+                startTimestamp);
+        action.actionParameters.putBoolean(KEY_RESUMED, true);
+        return action;
+    }
+
+    /**
+     * Persist the progress of a sync after a committed batch
+     */
+    private static void saveCheckpoint(final long lowerBound, final long upperBound,
+            final long startTimestamp) {
+        final BuglePrefs prefs = BuglePrefs.getApplicationPrefs();
+        prefs.putLong(BuglePrefsKeys.SYNC_CHECKPOINT_LOWER_BOUND, lowerBound);
+        prefs.putLong(BuglePrefsKeys.SYNC_CHECKPOINT_START_TIME, startTimestamp);
+        // Written last as it marks the checkpoint as valid
+        prefs.putLong(BuglePrefsKeys.SYNC_CHECKPOINT_UPPER_BOUND, upperBound);
+    }
+
+    private static void clearCheckpoint() {
+        BuglePrefs.getApplicationPrefs().remove(BuglePrefsKeys.SYNC_CHECKPOINT_UPPER_BOUND);
+    }
+
     private SyncMessagesAction(final long lowerBound, final long upperBound,
             final int maxMessagesToUpdate, final long startTimestamp) {
         actionParameters.putLong(KEY_LOWER_BOUND, lowerBound);
@@ -133,6 +190,51 @@ public class SyncMessagesAction extends Action implements Parcelable {
         actionParameters.putLong(KEY_START_TIMESTAMP, startTimestamp);
     }
 
+    @Override
+    protected String getCoalescingKey() {
+        return "SyncMessagesAction";
+    }
+
+    /**
+     * Sync runs as a chain of batches, each yielding to interactive work
+     */
+    @Override
+    protected int getPriority() {
+        return PRIORITY_BULK;
+    }
+
+    /**
+     * Pending sync requests collapse into the latest one, widened to the lowest requested
+     * lower bound so that a pending full sync is never downgraded to an incremental one.
+     * A resumed sync continues a running sync from its checkpoint, with that sync's upper bound
+     * and start timestamp, so it is never merged with a new request in either direction.
+     */
+    @Override
+    protected boolean coalesceWith(final Action newer) {
+        if (actionParameters.getBoolean(KEY_RESUMED)
+                || newer.actionParameters.getBoolean(KEY_RESUMED)) {
+            return false;
+        }
+        final long lowerBound = Math.min(actionParameters.getLong(KEY_LOWER_BOUND),
+                newer.actionParameters.getLong(KEY_LOWER_BOUND));
+        super.coalesceWith(newer);
+        actionParameters.putLong(KEY_LOWER_BOUND, lowerBound);
+        return true;
+    }
+
+    @Override
+    protected boolean canDispatchInProcess() {
+        // Telephony stays the source of truth, a sync lost with the process is redone by
+        // the next one and resumes from its checkpoint
+        return true;
+    }
+
+    @Override
+    protected boolean canRunInPool() {
+        // Only reads telephony; work lost with the process is redone by the next sync
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
@@ -175,9 +277,14 @@ public class SyncMessagesAction extends Action implements Parcelable {
             }
         }
 
-        // Check if sync allowed (can be too soon after last or one is already running)
-        if (syncManager.shouldSync(lowerBoundTimeMillis < 0, startTimestamp)) {
+        // Check if sync allowed (can be too soon after last or one is already running). A
+        // resumed full sync was already allowed when it started.
+        final boolean full = lowerBoundTimeMillis < 0
+                && !actionParameters.getBoolean(KEY_RESUMED);
+        if (syncManager.shouldSync(full, startTimestamp)) {
             syncManager.startSyncBatch(upperBoundTimeMillis);
+            actionParameters.putBoolean(KEY_FIRST_BATCH, true);
+            SyncMetrics.recordSyncStarted();
             requestBackgroundWork();
         }
 
@@ -191,15 +298,7 @@ public class SyncMessagesAction extends Action implements Parcelable {
         final int maxMessagesToScan =
                 BugleGservicesKeys.SMS_SYNC_BATCH_MAX_MESSAGES_TO_SCAN_DEFAULT;
 
-        final int initialMaxMessagesToUpdate = actionParameters.getInt(KEY_MAX_UPDATE);
-        final int smsSyncSubsequentBatchSizeMin =
-                BugleGservicesKeys.SMS_SYNC_BATCH_SIZE_MIN_DEFAULT;
-        final int smsSyncSubsequentBatchSizeMax =
-                BugleGservicesKeys.SMS_SYNC_BATCH_SIZE_MAX_DEFAULT;
-
-        // Cap sync size to GServices limits
-        final int maxMessagesToUpdate = Math.max(smsSyncSubsequentBatchSizeMin,
-                Math.min(initialMaxMessagesToUpdate, smsSyncSubsequentBatchSizeMax));
+        final int maxMessagesToUpdate = getBatchLimit(actionParameters.getInt(KEY_MAX_UPDATE));
 
         final long lowerBoundTimeMillis = actionParameters.getLong(KEY_LOWER_BOUND);
         final long upperBoundTimeMillis = actionParameters.getLong(KEY_UPPER_BOUND);
@@ -212,9 +311,18 @@ public class SyncMessagesAction extends Action implements Parcelable {
         // Clear last change time so that we can work out if this batch is dirty when it completes
         final SyncManager syncManager = DataModel.get().getSyncManager();
 
-        // Clear the singleton cache that maps threads to recipients and to conversations.
+        // Reset the singleton cache that maps threads to recipients and to conversations. The
+        // recipients are kept for the later batches of a sync. A full sync touches most threads
+        // so it loads them in bulk up front, while an incremental sync resolves the few threads
+        // it touches one by one.
         final SyncManager.ThreadInfoCache cache = syncManager.getThreadInfoCache();
-        cache.clear();
+        if (!actionParameters.getBoolean(KEY_FIRST_BATCH)) {
+            cache.clearConversations();
+        } else if (lowerBoundTimeMillis < 0) {
+            cache.preload();
+        } else {
+            cache.clear();
+        }
 
         // Sms messages to store
         final ArrayList<SmsMessage> smsToAdd = new ArrayList<>();
@@ -223,17 +331,30 @@ public class SyncMessagesAction extends Action implements Parcelable {
         // List of local SMS/MMS to remove
         final ArrayList<LocalDatabaseMessage> messagesToDelete = new ArrayList<>();
 
+        final Bundle response = new Bundle();
         long lastTimestampMillis = SYNC_FAILED;
         if (syncManager.isSyncing(upperBoundTimeMillis)) {
-            // Cursors
-            final SyncCursorPair cursors = new SyncCursorPair(lowerBoundTimeMillis,
-                    upperBoundTimeMillis);
-
-            // Actually compare the messages using cursor pair
-            lastTimestampMillis = syncCursorPair(db, cursors, smsToAdd, mmsToAdd,
-                    messagesToDelete, maxMessagesToScan, maxMessagesToUpdate, cache);
+            // Skip the newest part of the window if it is already in sync
+            final long fingerprintStartTimeMillis = SystemClock.elapsedRealtime();
+            final long scanUpperBoundTimeMillis = SyncCursorPair.findUnsynchronizedUpperBound(
+                    db, lowerBoundTimeMillis, upperBoundTimeMillis, maxMessagesToScan);
+            response.putLong(BUNDLE_KEY_FINGERPRINT_MILLIS,
+                    SystemClock.elapsedRealtime() - fingerprintStartTimeMillis);
+            if (scanUpperBoundTimeMillis == SyncCursorPair.SYNC_COMPLETE) {
+                LogUtil.i(TAG, "SyncMessagesAction: Messages from " + lowerBoundTimeMillis
+                        + " to " + upperBoundTimeMillis + " already in sync");
+                lastTimestampMillis = SyncCursorPair.SYNC_COMPLETE;
+            } else {
+                // Cursors
+                final SyncCursorPair cursors = new SyncCursorPair(lowerBoundTimeMillis,
+                        scanUpperBoundTimeMillis);
+
+                // Actually compare the messages using cursor pair
+                lastTimestampMillis = syncCursorPair(db, cursors, smsToAdd, mmsToAdd,
+                        messagesToDelete, maxMessagesToScan, maxMessagesToUpdate, cache,
+                        response);
+            }
         }
-        final Bundle response = new Bundle();
 
         // If comparison succeeds bundle up the changes for processing in ActionService
         if (lastTimestampMillis > SYNC_FAILED) {
@@ -246,6 +367,7 @@ public class SyncMessagesAction extends Action implements Parcelable {
             response.putParcelableArrayList(BUNDLE_KEY_SMS_MESSAGES, smsToAdd);
             response.putParcelableArrayList(BUNDLE_KEY_MMS_MESSAGES, mmsToAddList);
             response.putParcelableArrayList(BUNDLE_KEY_MESSAGES_TO_DELETE, messagesToDelete);
+            SyncMetrics.sampleHeap();
         }
         response.putLong(BUNDLE_KEY_LAST_TIMESTAMP, lastTimestampMillis);
 
@@ -262,12 +384,13 @@ public class SyncMessagesAction extends Action implements Parcelable {
      * @param maxMessagesToScan max messages to scan for changes
      * @param maxMessagesToUpdate max messages to return for updates
      * @param cache cache for conversation id / thread id / recipient set mapping
+     * @param timings bundle the time taken by each phase is put in
      * @return timestamp of the oldest message seen during the sync scan
      */
     private long syncCursorPair(final DatabaseWrapper db, final SyncCursorPair cursors,
             final ArrayList<SmsMessage> smsToAdd, final LongSparseArray<MmsMessage> mmsToAdd,
             final ArrayList<LocalDatabaseMessage> messagesToDelete, final int maxMessagesToScan,
-            final int maxMessagesToUpdate, final ThreadInfoCache cache) {
+            final int maxMessagesToUpdate, final ThreadInfoCache cache, final Bundle timings) {
         long lastTimestampMillis;
         final long startTimeMillis = SystemClock.elapsedRealtime();
 
@@ -280,6 +403,8 @@ public class SyncMessagesAction extends Action implements Parcelable {
         // changes (including adding and deleting)
         try {
             cursors.query(db);
+            timings.putLong(BUNDLE_KEY_LOCAL_QUERY_MILLIS, cursors.getLocalQueryMillis());
+            timings.putLong(BUNDLE_KEY_REMOTE_QUERY_MILLIS, cursors.getRemoteQueryMillis());
 
             localTotal = cursors.getLocalCount();
             remoteTotal = cursors.getRemoteCount();
@@ -291,8 +416,11 @@ public class SyncMessagesAction extends Action implements Parcelable {
                         + ")");
             }
 
+            final long mergeStartTimeMillis = SystemClock.elapsedRealtime();
             lastTimestampMillis = cursors.scan(maxMessagesToScan, maxMessagesToUpdate,
                     smsToAdd, mmsToAdd, messagesToDelete, cache);
+            final long mergeEndTimeMillis = SystemClock.elapsedRealtime();
+            timings.putLong(BUNDLE_KEY_MERGE_MILLIS, mergeEndTimeMillis - mergeStartTimeMillis);
 
             localPos = cursors.getLocalPosition();
             remotePos = cursors.getRemotePosition();
@@ -303,10 +431,14 @@ public class SyncMessagesAction extends Action implements Parcelable {
                         + remoteTotal + ")");
             }
 
-            // Batch loading the parts of the MMS messages in this batch
-            loadMmsParts(mmsToAdd);
+            // Batch loading the parts of the MMS messages in this batch. Delay loading the
+            // media content for parsing for efficiency
+            // TODO: load the media and fill in the dimensions when we actually display it
+            MmsUtils.loadMmsParts(mmsToAdd, false/*loadMedia*/);
             // Lookup senders for incoming mms messages
             setMmsSenders(mmsToAdd, cache);
+            timings.putLong(BUNDLE_KEY_MMS_LOAD_MILLIS,
+                    SystemClock.elapsedRealtime() - mergeEndTimeMillis);
         } catch (final SQLiteException e) {
             LogUtil.e(TAG, "SyncMessagesAction: Database exception", e);
             // Let's abort
@@ -358,6 +490,18 @@ public class SyncMessagesAction extends Action implements Parcelable {
                     + lowerBoundTimeMillis + " to " + upperBoundTimeMillis);
         } else {
             final boolean dirty = syncManager.isBatchDirty(lastTimestampMillis);
+            final SyncMetrics.BatchStats stats = new SyncMetrics.BatchStats();
+            stats.lowerBound = lowerBoundTimeMillis;
+            stats.upperBound = upperBoundTimeMillis;
+            stats.batchLimit = getBatchLimit(maxMessagesToUpdate);
+            stats.fingerprintMillis = response.getLong(BUNDLE_KEY_FINGERPRINT_MILLIS);
+            stats.localQueryMillis = response.getLong(BUNDLE_KEY_LOCAL_QUERY_MILLIS);
+            stats.remoteQueryMillis = response.getLong(BUNDLE_KEY_REMOTE_QUERY_MILLIS);
+            stats.mergeMillis = response.getLong(BUNDLE_KEY_MERGE_MILLIS);
+            stats.mmsLoadMillis = response.getLong(BUNDLE_KEY_MMS_LOAD_MILLIS);
+            stats.dirty = dirty;
+            stats.failed = lastTimestampMillis == SYNC_FAILED;
+            stats.messageCostMicros = actionParameters.getLong(KEY_MESSAGE_COST_MICROS);
             if (lastTimestampMillis == SYNC_FAILED) {
                 LogUtil.e(TAG, "SyncMessagesAction: Sync failed - terminating");
 
@@ -367,6 +511,7 @@ public class SyncMessagesAction extends Action implements Parcelable {
                 prefs.putLong(BuglePrefsKeys.LAST_SYNC_TIME, startTimestamp);
                 // Remember last full sync so that don't start background full sync right away
                 prefs.putLong(BuglePrefsKeys.LAST_FULL_SYNC_TIME, startTimestamp);
+                clearCheckpoint();
 
                 syncManager.complete();
             } else if (dirty) {
@@ -377,6 +522,8 @@ public class SyncMessagesAction extends Action implements Parcelable {
                 final SyncMessagesAction nextBatch =
                         new SyncMessagesAction(lowerBoundTimeMillis, upperBoundTimeMillis,
                                 maxMessagesToUpdate, startTimestamp);
+                nextBatch.actionParameters.putLong(KEY_MESSAGE_COST_MICROS,
+                        actionParameters.getLong(KEY_MESSAGE_COST_MICROS));
 
                 syncManager.startSyncBatch(upperBoundTimeMillis);
                 requestBackgroundWork(nextBatch);
@@ -422,6 +569,15 @@ public class SyncMessagesAction extends Action implements Parcelable {
                         MessagingContentProvider.notifyPartsChanged();
                     }
                 }
+                final long messageCostMicros = estimateMessageCost(
+                        actionParameters.getLong(KEY_MESSAGE_COST_MICROS), messagesUpdated,
+                        txnTimeMillis);
+                final int batchLimit = stats.batchLimit;
+                stats.writeMillis = txnTimeMillis;
+                stats.added = smsToAdd.size() + mmsToAdd.size();
+                stats.deleted = messagesToDelete.size();
+                stats.messageCostMicros = messageCostMicros;
+
                 // Determine if there are more messages that need to be scanned
                 if (lastTimestampMillis >= 0 && lastTimestampMillis >= lowerBoundTimeMillis) {
                     if (LogUtil.isLoggable(TAG, LogUtil.DEBUG)) {
@@ -431,12 +587,17 @@ public class SyncMessagesAction extends Action implements Parcelable {
 
                     // Include final millisecond of last sync in next sync
                     final long newUpperBoundTimeMillis = lastTimestampMillis + 1;
-                    final int newMaxMessagesToUpdate = nextBatchSize(messagesUpdated,
-                            txnTimeMillis);
+                    final int newMaxMessagesToUpdate = nextBatchSize(messageCostMicros,
+                            batchLimit);
 
                     final SyncMessagesAction nextBatch =
                             new SyncMessagesAction(lowerBoundTimeMillis, newUpperBoundTimeMillis,
                                     newMaxMessagesToUpdate, startTimestamp);
+                    nextBatch.actionParameters.putLong(KEY_MESSAGE_COST_MICROS,
+                            messageCostMicros);
+                    // Everything from the new upper bound up is committed by now
+                    saveCheckpoint(lowerBoundTimeMillis, newUpperBoundTimeMillis,
+                            startTimestamp);
 
                     // Proceed with next batch
                     syncManager.startSyncBatch(newUpperBoundTimeMillis);
@@ -445,6 +606,7 @@ public class SyncMessagesAction extends Action implements Parcelable {
                     final BuglePrefs prefs = BuglePrefs.getApplicationPrefs();
                     // Save sync completion time so next sync will start from here
                     prefs.putLong(BuglePrefsKeys.LAST_SYNC_TIME, startTimestamp);
+                    clearCheckpoint();
                     if (lowerBoundTimeMillis < 0) {
                         // Remember last full sync so that don't start another full sync right away
                         prefs.putLong(BuglePrefsKeys.LAST_FULL_SYNC_TIME, startTimestamp);
@@ -486,83 +648,74 @@ public class SyncMessagesAction extends Action implements Parcelable {
                 // Either sync should be complete or we should have a follow up request
                 Assert.isTrue(hasBackgroundActions() || !syncManager.isSyncing());
             }
+            SyncMetrics.recordBatch(stats);
+            if (!syncManager.isSyncing()) {
+                SyncMetrics.recordSyncFinished();
+                // Fold the pages written by the sync back into the database now rather than
+                // in the commit of some later write
+                DataModel.get().getDatabase().checkpoint();
+            }
         }
 
         return null;
     }
 
     /**
-     * Decide the next batch size based on the stats we collected with past batch
+     * Cap sync size to GServices limits
+     * @param maxMessagesToUpdate requested number of messages to sync in a batch
+     * @return number of messages the batch may update
+     */
+    private static int getBatchLimit(final int maxMessagesToUpdate) {
+        return Math.max(BugleGservicesKeys.SMS_SYNC_BATCH_SIZE_MIN_DEFAULT,
+                Math.min(maxMessagesToUpdate, BugleGservicesKeys.SMS_SYNC_BATCH_SIZE_MAX_DEFAULT));
+    }
+
+    /**
+     * Update the estimated time it takes to apply one message to the local database with the
+     * stats we collected in this batch. The estimate is smoothed over batches so that a single
+     * slow or fast transaction does not swing the size of the next batch.
+     * @param previousCostMicros estimate before this batch (<= 0 if none)
      * @param messagesUpdated number of messages updated in this batch
      * @param txnTimeMillis time the transaction took in ms
-     * @return Target number of messages to sync for next batch
+     * @return estimated cost per message in us (<= 0 if still unknown)
      */
-    private static int nextBatchSize(final int messagesUpdated, final long txnTimeMillis) {
-        final long smsSyncSubsequentBatchTimeLimitMillis =
-                BugleGservicesKeys.SMS_SYNC_BATCH_TIME_LIMIT_MILLIS_DEFAULT;
-
-        if (txnTimeMillis <= 0) {
-            return 0;
+    private static long estimateMessageCost(final long previousCostMicros,
+            final int messagesUpdated, final long txnTimeMillis) {
+        if (messagesUpdated <= 0 || (messagesUpdated < MIN_MESSAGES_FOR_COST_SAMPLE
+                && previousCostMicros > 0)) {
+            return previousCostMicros;
+        }
+        final long sampleCostMicros = Math.max(txnTimeMillis, 1) * 1000 / messagesUpdated;
+        if (previousCostMicros <= 0) {
+            return sampleCostMicros;
         }
-        // Number of messages we can sync within the batch time limit using
-        // the average sync time calculated based on the stats we collected
-        // in previous batch
-        return (int) ((double) (messagesUpdated) / (double) txnTimeMillis
-                        * smsSyncSubsequentBatchTimeLimitMillis);
+        return (previousCostMicros + sampleCostMicros) / 2;
     }
 
     /**
-     * Batch loading MMS parts for the messages in current batch
+     * Decide the next batch size so that its transaction, which holds up the action queue,
+     * fits the batch time limit
+     * @param messageCostMicros estimated time to apply one message in us
+     * @param batchLimit number of messages this batch was allowed to update
+     * @return Target number of messages to sync for next batch
      */
-    private void loadMmsParts(final LongSparseArray<MmsMessage> mmses) {
-        final Context context = Factory.get().getApplicationContext();
-        final int totalIds = mmses.size();
-        for (int start = 0; start < totalIds; start += MmsUtils.MAX_IDS_PER_QUERY) {
-            final int end = Math.min(start + MmsUtils.MAX_IDS_PER_QUERY, totalIds); //excluding
-            final int count = end - start;
-            final String batchSelection = String.format(
-                    Locale.US,
-                    "%s != '%s' AND %s IN %s",
-                    Mms.Part.CONTENT_TYPE,
-                    ContentType.APP_SMIL,
-                    Mms.Part.MSG_ID,
-                    MmsUtils.getSqlInOperand(count));
-            final String[] batchSelectionArgs = new String[count];
-            for (int i = 0; i < count; i++) {
-                batchSelectionArgs[i] = Long.toString(mmses.valueAt(start + i).getId());
-            }
-            final Cursor cursor = SqliteWrapper.query(
-                    context,
-                    context.getContentResolver(),
-                    MmsUtils.MMS_PART_CONTENT_URI,
-                    DatabaseMessages.MmsPart.PROJECTION,
-                    batchSelection,
-                    batchSelectionArgs,
-                    null/*sortOrder*/);
-            if (cursor != null) {
-                try {
-                    while (cursor.moveToNext()) {
-                        // Delay loading the media content for parsing for efficiency
-                        // TODO: load the media and fill in the dimensions when
-                        // we actually display it
-                        final DatabaseMessages.MmsPart part =
-                                DatabaseMessages.MmsPart.get(cursor, false/*loadMedia*/);
-                        final DatabaseMessages.MmsMessage mms = mmses.get(part.mMessageId);
-                        if (mms != null) {
-                            mms.addPart(part);
-                        }
-                    }
-                } finally {
-                    cursor.close();
-                }
-            }
+    private static int nextBatchSize(final long messageCostMicros, final int batchLimit) {
+        final long smsSyncSubsequentBatchTimeLimitMillis =
+                BugleGservicesKeys.SMS_SYNC_BATCH_TIME_LIMIT_MILLIS_DEFAULT;
+
+        if (messageCostMicros <= 0) {
+            return 0;
         }
+        // Number of messages we can sync within the batch time limit, growing by at most
+        // double per batch as the estimate may be based on few messages
+        final long size = smsSyncSubsequentBatchTimeLimitMillis * 1000 / messageCostMicros;
+        return (int) Math.min(size, 2L * batchLimit);
     }
 
     /**
      * Batch loading MMS sender for the messages in current batch
      */
-    private void setMmsSenders(final LongSparseArray<MmsMessage> mmses,
+    static void setMmsSenders(final LongSparseArray<MmsMessage> mmses,
             final ThreadInfoCache cache) {
         // Store all the MMS messages
         for (int i = 0; i < mmses.size(); i++) {
@@ -586,7 +739,7 @@ public class SyncMessagesAction extends Action implements Parcelable {
     /**
      * Find out the sender of an MMS message
      */
-    private String getMmsSender(final MmsMessage mms, final ThreadInfoCache cache) {
+    private static String getMmsSender(final MmsMessage mms, final ThreadInfoCache cache) {
         final List<String> recipients = cache.getThreadRecipients(mms.mThreadId);
         Assert.notNull(recipients);
         Assert.isTrue(recipients.size() > 0);
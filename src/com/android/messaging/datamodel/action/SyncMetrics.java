@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2024 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.messaging.datamodel.action;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Statistics of message sync batches since the process started, showing how batch sizes
+ * adapt to the measured cost of applying messages to the local database. The phases of the
+ * most recent batches are kept in a ring buffer so that a slow or looping sync can be
+ * diagnosed from a dump without verbose logging. Batches are also summed up per sync, from
+ * the first batch until no follow-up batch is scheduled, to compare the throughput of syncs
+ * e.g. over a corpus generated with tools/messagegen/fillsms.
+ */
+public class SyncMetrics {
+    private static final int HISTORY_SIZE = 64;
+    private static final int SYNC_HISTORY_SIZE = 16;
+
+    /**
+     * Measurements of one sync batch. Phases that did not run are left at 0.
+     */
+    static class BatchStats {
+        long lowerBound;
+        long upperBound;
+        int batchLimit;
+        long fingerprintMillis; // bisecting the window on fingerprints
+        long localQueryMillis;
+        long remoteQueryMillis;
+        long mergeMillis; // comparing local and remote messages
+        long mmsLoadMillis; // loading MMS parts and senders
+        long writeMillis; // applying the batch to the local database
+        int added;
+        int deleted;
+        boolean dirty;
+        boolean failed;
+        long messageCostMicros;
+        long completedTimeMillis;
+    }
+
+    /**
+     * Totals of one sync, over all of its batches
+     */
+    private static class SyncStats {
+        long startTimeMillis;
+        long startRealtimeMillis;
+        long durationMillis;
+        int batches;
+        int transactions; // batches that wrote to the local database
+        int added;
+        int deleted;
+        long writeMillis;
+        long peakHeapBytes; // sampled after the scan and after the write of each batch
+        boolean failed;
+    }
+
+    private static final BatchStats[] sHistory = new BatchStats[HISTORY_SIZE];
+    private static final SyncStats[] sSyncHistory = new SyncStats[SYNC_HISTORY_SIZE];
+    private static long sSyncCount;
+    private static SyncStats sCurrentSync;
+    private static long sBatchCount;
+    private static long sMessagesUpdated;
+    private static long sWriteMillis;
+    private static long sMaxWriteMillis;
+    private static int sMinBatchLimit = Integer.MAX_VALUE;
+    private static int sMaxBatchLimit;
+
+    private SyncMetrics() {
+    }
+
+    /**
+     * Record the start of a sync, before its first batch. A sync that is still open was
+     * abandoned, e.g. its batch turned into an orphan, and is dropped.
+     */
+    static synchronized void recordSyncStarted() {
+        sCurrentSync = new SyncStats();
+        sCurrentSync.startTimeMillis = System.currentTimeMillis();
+        sCurrentSync.startRealtimeMillis = SystemClock.elapsedRealtime();
+        sampleHeapLocked();
+    }
+
+    /**
+     * Record the end of the current sync, once its last batch has been recorded
+     */
+    static synchronized void recordSyncFinished() {
+        if (sCurrentSync == null) {
+            return;
+        }
+        sCurrentSync.durationMillis =
+                SystemClock.elapsedRealtime() - sCurrentSync.startRealtimeMillis;
+        sSyncHistory[(int) (sSyncCount % SYNC_HISTORY_SIZE)] = sCurrentSync;
+        sSyncCount++;
+        sCurrentSync = null;
+    }
+
+    /**
+     * Sample the heap in use for the peak of the current sync. Called where a batch holds the
+     * most memory, i.e. once the messages to add have been loaded.
+     */
+    static synchronized void sampleHeap() {
+        sampleHeapLocked();
+    }
+
+    private static void sampleHeapLocked() {
+        if (sCurrentSync != null) {
+            final Runtime runtime = Runtime.getRuntime();
+            sCurrentSync.peakHeapBytes = Math.max(sCurrentSync.peakHeapBytes,
+                    runtime.totalMemory() - runtime.freeMemory());
+        }
+    }
+
+    /**
+     * Record a sync batch that has been processed, successful or not
+     */
+    static synchronized void recordBatch(final BatchStats stats) {
+        stats.completedTimeMillis = System.currentTimeMillis();
+        if (sCurrentSync != null) {
+            sCurrentSync.batches++;
+            if (stats.added + stats.deleted > 0) {
+                sCurrentSync.transactions++;
+            }
+            sCurrentSync.added += stats.added;
+            sCurrentSync.deleted += stats.deleted;
+            sCurrentSync.writeMillis += stats.writeMillis;
+            sCurrentSync.failed |= stats.failed;
+            sampleHeapLocked();
+        }
+        sHistory[(int) (sBatchCount % HISTORY_SIZE)] = stats;
+        sBatchCount++;
+        sMessagesUpdated += stats.added + stats.deleted;
+        sWriteMillis += stats.writeMillis;
+        sMaxWriteMillis = Math.max(sMaxWriteMillis, stats.writeMillis);
+        sMinBatchLimit = Math.min(sMinBatchLimit, stats.batchLimit);
+        sMaxBatchLimit = Math.max(sMaxBatchLimit, stats.batchLimit);
+    }
+
+    /**
+     * Dump the statistics and recent batches, oldest first, in a human readable form
+     */
+    public static synchronized void dump(final PrintWriter writer) {
+        writer.println("Sync batches: count=" + sBatchCount
+                + " messages_updated=" + sMessagesUpdated
+                + " mean_write_ms=" + (sBatchCount == 0 ? 0 : sWriteMillis / sBatchCount)
+                + " max_write_ms=" + sMaxWriteMillis
+                + " limit_min=" + (sBatchCount == 0 ? 0 : sMinBatchLimit)
+                + " limit_max=" + sMaxBatchLimit);
+
+        final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        writer.println("Recent syncs:");
+        final long firstSync = Math.max(0, sSyncCount - SYNC_HISTORY_SIZE);
+        for (long i = firstSync; i < sSyncCount; i++) {
+            final SyncStats stats = sSyncHistory[(int) (i % SYNC_HISTORY_SIZE)];
+            final int messages = stats.added + stats.deleted;
+            writer.println("  " + format.format(new Date(stats.startTimeMillis))
+                    + (stats.failed ? " FAILED" : "")
+                    + " duration_ms=" + stats.durationMillis
+                    + " batches=" + stats.batches
+                    + " transactions=" + stats.transactions
+                    + " added=" + stats.added + " deleted=" + stats.deleted
+                    + " messages_per_sec=" + (stats.durationMillis == 0 ? 0
+                            : messages * 1000L / stats.durationMillis)
+                    + " write_ms=" + stats.writeMillis
+                    + " peak_heap_kb=" + stats.peakHeapBytes / 1024);
+        }
+
+        writer.println("Recent sync batches:");
+        final long first = Math.max(0, sBatchCount - HISTORY_SIZE);
+        for (long i = first; i < sBatchCount; i++) {
+            final BatchStats stats = sHistory[(int) (i % HISTORY_SIZE)];
+            writer.println("  " + format.format(new Date(stats.completedTimeMillis))
+                    + " window=[" + stats.lowerBound + "," + stats.upperBound + ")"
+                    + (stats.failed ? " FAILED" : "") + (stats.dirty ? " DIRTY" : "")
+                    + " limit=" + stats.batchLimit
+                    + " added=" + stats.added + " deleted=" + stats.deleted
+                    + " fingerprint_ms=" + stats.fingerprintMillis
+                    + " local_query_ms=" + stats.localQueryMillis
+                    + " remote_query_ms=" + stats.remoteQueryMillis
+                    + " merge_ms=" + stats.mergeMillis
+                    + " mms_load_ms=" + stats.mmsLoadMillis
+                    + " write_ms=" + stats.writeMillis
+                    + " message_cost_us=" + stats.messageCostMicros);
+        }
+    }
+}
@@ -52,6 +52,11 @@ public class UpdateConversationArchiveStatusAction extends Action {
         actionParameters.putBoolean(KEY_IS_ARCHIVE, isArchive);
     }
 
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final String conversationId = actionParameters.getString(KEY_CONVERSATION_ID);
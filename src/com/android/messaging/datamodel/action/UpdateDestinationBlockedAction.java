@@ -105,6 +105,11 @@ public class UpdateDestinationBlockedAction extends Action {
         actionParameters.putString(KEY_CONVERSATION_ID, conversationId);
     }
 
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final String destination = actionParameters.getString(KEY_DESTINATION);
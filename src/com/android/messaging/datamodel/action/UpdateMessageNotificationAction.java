@@ -36,6 +36,19 @@ public class UpdateMessageNotificationAction extends Action {
     private UpdateMessageNotificationAction() {
     }
 
+    /**
+     * Updates are idempotent so all pending requests collapse into one
+     */
+    @Override
+    protected String getCoalescingKey() {
+        return "UpdateMessageNotificationAction";
+    }
+
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         BugleNotifications.update(true /* silent */, BugleNotifications.UPDATE_MESSAGES);
@@ -57,6 +57,11 @@ public class UpdateMessagePartSizeAction extends Action implements Parcelable {
         actionParameters.putInt(KEY_HEIGHT, height);
     }
 
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final String partId = actionParameters.getString(KEY_PART_ID);
@@ -49,6 +49,19 @@ public class WriteDraftMessageAction extends Action implements Parcelable {
         actionParameters.putParcelable(KEY_MESSAGE, message);
     }
 
+    /**
+     * Only the latest pending draft of a conversation needs to be written
+     */
+    @Override
+    protected String getCoalescingKey() {
+        return "WriteDraftMessageAction:" + actionParameters.getString(KEY_CONVERSATION_ID);
+    }
+
+    @Override
+    protected boolean canDispatchInProcess() {
+        return true;
+    }
+
     @Override
     protected Object executeAction() {
         final DatabaseWrapper db = DataModel.get().getDatabase();
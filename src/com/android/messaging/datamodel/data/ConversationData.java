@@ -63,6 +63,8 @@ public class ConversationData extends BindableData {
     private static final String BINDING_ID = "bindingId";
     private static final long LAST_MESSAGE_TIMESTAMP_NaN = -1;
     private static final int MESSAGE_COUNT_NaN = -1;
+    // Number of messages loaded at first, and added to the window when scrolling into the past
+    private static final int MESSAGES_WINDOW_PAGE_SIZE = 200;
 
     public interface ConversationDataListener {
         void onConversationMessagesCursorUpdated(ConversationData data, Cursor cursor,
@@ -217,12 +219,14 @@ public class ConversationData extends BindableData {
             final String bindingId = args.getString(BINDING_ID);
             // Check if data still bound to the requesting ui element
             if (isBound(bindingId)) {
-                final Uri uri =
-                        MessagingContentProvider.buildConversationMessagesUri(mConversationId);
+                final Uri uri = MessagingContentProvider.buildConversationMessagesUri(
+                        mConversationId, mMessagesWindowSize);
                 loader = new BoundCursorLoader(bindingId, mContext, uri,
                         ConversationMessageData.getProjection(), null, null, null);
                 mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                 mMessageCount = MESSAGE_COUNT_NaN;
+                mMessagesWindowAnchored = false;
+                mLoadingOlderMessages = false;
             } else {
                 LogUtil.w(TAG, "Creating messages loader after unbinding mConversationId = " +
                         mConversationId);
@@ -266,9 +270,11 @@ public class ConversationData extends BindableData {
                     } else {
                         mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
                     }
+                    anchorMessagesWindow(loader, rawData);
                 } else {
                     mMessageCount = MESSAGE_COUNT_NaN;
                 }
+                mLoadingOlderMessages = false;
 
                 mListeners.onConversationMessagesCursorUpdated(ConversationData.this, data,
                         newMessage, isSync);
@@ -294,6 +300,29 @@ public class ConversationData extends BindableData {
             }
         }
 
+        /**
+         * Once the newest messages have been loaded, key the window on its oldest message so
+         * that re-queries on changes load the same messages plus any newer ones, rather than
+         * sliding the window or loading the whole conversation
+         */
+        private void anchorMessagesWindow(final BoundCursorLoader loader, final Cursor rawData) {
+            if (mMessagesWindowAnchored) {
+                return;
+            }
+            mHasOlderMessages = rawData.getCount() >= mMessagesWindowSize;
+            final int position = rawData.getPosition();
+            // The raw cursor is sorted DESC so the oldest message is the last one
+            if (rawData.moveToLast()) {
+                final ConversationMessageData oldestMessage = new ConversationMessageData();
+                oldestMessage.bind(rawData);
+                loader.setUri(MessagingContentProvider.buildConversationMessagesUri(
+                        mConversationId, oldestMessage.getReceivedTimeStamp(),
+                        oldestMessage.getMessageId()));
+                mMessagesWindowAnchored = true;
+            }
+            rawData.moveToPosition(position);
+        }
+
         private ConversationMessageData getLastMessage(final Cursor cursor) {
             if (cursor != null && cursor.getCount() > 0) {
                 final int position = cursor.getPosition();
@@ -430,6 +459,10 @@ public class ConversationData extends BindableData {
     private long mLastMessageTimestamp = LAST_MESSAGE_TIMESTAMP_NaN;
     private int mMessageCount = MESSAGE_COUNT_NaN;
     private String mLastMessageId;
+    private int mMessagesWindowSize = MESSAGES_WINDOW_PAGE_SIZE;
+    private boolean mMessagesWindowAnchored;
+    private boolean mHasOlderMessages;
+    private boolean mLoadingOlderMessages;
 
     public ConversationData(final Context context, final ConversationDataListener listener,
             final String conversationId) {
@@ -514,6 +547,29 @@ public class ConversationData extends BindableData {
                 mSelfParticipantLoaderCallbacks);
     }
 
+    /**
+     * Extend the window of loaded messages by a page of older messages, if there are any. The
+     * messages already loaded stay at the same position from the bottom.
+     */
+    @RunsOnMainThread
+    public void loadOlderMessages() {
+        Assert.isMainThread();
+        if (!mHasOlderMessages || mLoadingOlderMessages || mLoaderManager == null
+                || mMessageCount == MESSAGE_COUNT_NaN) {
+            return;
+        }
+        final Loader<Cursor> loader = mLoaderManager.getLoader(CONVERSATION_MESSAGES_LOADER);
+        if (loader == null) {
+            return;
+        }
+        mMessagesWindowSize = mMessageCount + MESSAGES_WINDOW_PAGE_SIZE;
+        mMessagesWindowAnchored = false;
+        mLoadingOlderMessages = true;
+        ((BoundCursorLoader) loader).setUri(MessagingContentProvider.buildConversationMessagesUri(
+                mConversationId, mMessagesWindowSize));
+        loader.onContentChanged();
+    }
+
     @Override
     protected void unregisterListeners() {
         mListeners.clear();
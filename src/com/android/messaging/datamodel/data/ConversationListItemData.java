@@ -260,17 +260,104 @@ public class ConversationListItemData {
     }
 
     /**
-     * Get the name of the view for this data item
+     * Get the name of the table for this data item
      */
-    public static String getConversationListView() {
-        return CONVERSATION_LIST_VIEW;
+    public static String getConversationListTable() {
+        return CONVERSATION_LIST_TABLE;
     }
 
-    public static String getConversationListViewSql() {
-        return CONVERSATION_LIST_VIEW_SQL;
+    /**
+     * SQL that drops, recreates and fills the conversation list table. The table takes its
+     * columns from the same select that keeps it up to date, so it is rebuilt whenever the
+     * database is upgraded in case the select has changed.
+     */
+    public static String[] getConversationListTableSqls() {
+        return new String[] {
+            "DROP TABLE IF EXISTS " + CONVERSATION_LIST_TABLE,
+            "CREATE TABLE " + CONVERSATION_LIST_TABLE + " AS " + CONVERSATION_LIST_SELECT_SQL
+                    + " WHERE 0",
+            "CREATE UNIQUE INDEX index_" + CONVERSATION_LIST_TABLE + "_id ON "
+                    + CONVERSATION_LIST_TABLE + "(" + ConversationListViewColumns._ID + ")",
+            // The list is read by archive status, newest first
+            "CREATE INDEX index_" + CONVERSATION_LIST_TABLE + "_sort ON "
+                    + CONVERSATION_LIST_TABLE + "(" + ConversationListViewColumns.ARCHIVE_STATUS
+                    + ", " + ConversationListViewColumns.SORT_TIMESTAMP + ")",
+            "CREATE INDEX index_" + CONVERSATION_LIST_TABLE + "_snippet_sender ON "
+                    + CONVERSATION_LIST_TABLE + "("
+                    + ConversationListViewColumns.SNIPPET_SENDER_ID + ")",
+            "INSERT INTO " + CONVERSATION_LIST_TABLE + " " + CONVERSATION_LIST_SELECT_SQL,
+        };
     }
 
-    private static final String CONVERSATION_LIST_VIEW = "conversation_list_view";
+    /**
+     * SQL of the triggers keeping the conversation list table in sync with the conversations,
+     * their latest messages and the senders of those
+     */
+    public static String[] getConversationListTriggerSqls() {
+        return new String[] {
+            "CREATE TRIGGER " + CONVERSATION_LIST_TABLE + "_insert_TRIGGER AFTER INSERT ON "
+                    + DatabaseHelper.CONVERSATIONS_TABLE + " FOR EACH ROW BEGIN"
+                    + getInsertConversationListRowSql("NEW." + ConversationColumns._ID)
+                    + " END;",
+            // Also covers new messages, which update the latest message of the conversation
+            "CREATE TRIGGER " + CONVERSATION_LIST_TABLE + "_update_TRIGGER AFTER UPDATE ON "
+                    + DatabaseHelper.CONVERSATIONS_TABLE + " FOR EACH ROW BEGIN"
+                    + getDeleteConversationListRowSql("OLD." + ConversationColumns._ID)
+                    + getInsertConversationListRowSql("NEW." + ConversationColumns._ID)
+                    + " END;",
+            "CREATE TRIGGER " + CONVERSATION_LIST_TABLE + "_delete_TRIGGER AFTER DELETE ON "
+                    + DatabaseHelper.CONVERSATIONS_TABLE + " FOR EACH ROW BEGIN"
+                    + getDeleteConversationListRowSql("OLD." + ConversationColumns._ID)
+                    + " END;",
+            "CREATE TRIGGER " + CONVERSATION_LIST_TABLE + "_message_update_TRIGGER AFTER UPDATE OF "
+                    + MessageColumns.READ + ", " + MessageColumns.STATUS + ", "
+                    + MessageColumns.RAW_TELEPHONY_STATUS + ", "
+                    + MessageColumns.SENDER_PARTICIPANT_ID + " ON " + DatabaseHelper.MESSAGES_TABLE
+                    + " FOR EACH ROW WHEN " + getIsLatestMessageSql("NEW") + " BEGIN"
+                    + getDeleteConversationListRowSql("NEW." + MessageColumns.CONVERSATION_ID)
+                    + getInsertConversationListRowSql("NEW." + MessageColumns.CONVERSATION_ID)
+                    + " END;",
+            "CREATE TRIGGER " + CONVERSATION_LIST_TABLE + "_message_delete_TRIGGER AFTER DELETE ON "
+                    + DatabaseHelper.MESSAGES_TABLE
+                    + " FOR EACH ROW WHEN " + getIsLatestMessageSql("OLD") + " BEGIN"
+                    + getDeleteConversationListRowSql("OLD." + MessageColumns.CONVERSATION_ID)
+                    + getInsertConversationListRowSql("OLD." + MessageColumns.CONVERSATION_ID)
+                    + " END;",
+            "CREATE TRIGGER " + CONVERSATION_LIST_TABLE + "_participant_TRIGGER AFTER UPDATE OF "
+                    + ParticipantColumns.FIRST_NAME + ", " + ParticipantColumns.DISPLAY_DESTINATION
+                    + " ON " + DatabaseHelper.PARTICIPANTS_TABLE + " FOR EACH ROW BEGIN"
+                    + " UPDATE " + CONVERSATION_LIST_TABLE + " SET "
+                    + ConversationListViewColumns.SNIPPET_SENDER_FIRST_NAME + "=NEW."
+                    + ParticipantColumns.FIRST_NAME + ", "
+                    + ConversationListViewColumns.SNIPPET_SENDER_DISPLAY_DESTINATION + "=NEW."
+                    + ParticipantColumns.DISPLAY_DESTINATION
+                    + " WHERE " + ConversationListViewColumns.SNIPPET_SENDER_ID + "=NEW."
+                    + ParticipantColumns._ID + ";"
+                    + " END;",
+        };
+    }
+
+    private static String getInsertConversationListRowSql(final String conversationId) {
+        return " INSERT INTO " + CONVERSATION_LIST_TABLE + " " + CONVERSATION_LIST_SELECT_SQL
+                + " WHERE " + DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns._ID
+                + "=" + conversationId + ";";
+    }
+
+    private static String getDeleteConversationListRowSql(final String conversationId) {
+        return " DELETE FROM " + CONVERSATION_LIST_TABLE + " WHERE "
+                + ConversationListViewColumns._ID + "=" + conversationId + ";";
+    }
+
+    private static String getIsLatestMessageSql(final String row) {
+        return row + "." + MessageColumns._ID + "=(SELECT "
+                + ConversationColumns.LATEST_MESSAGE_ID + " FROM "
+                + DatabaseHelper.CONVERSATIONS_TABLE + " WHERE " + ConversationColumns._ID + "="
+                + row + "." + MessageColumns.CONVERSATION_ID + ")";
+    }
+
+    // Conversations with their latest message and its sender, kept denormalized so that the
+    // conversation list is an indexed read of one table
+    private static final String CONVERSATION_LIST_TABLE = "conversation_list";
 
     private static final String CONVERSATION_LIST_VIEW_PROJECTION =
             DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns._ID
@@ -333,22 +420,22 @@ public class ConversationListItemData {
             + '=' + DatabaseHelper.PARTICIPANTS_TABLE + '.' + DatabaseHelper.ParticipantColumns._ID
             + ") ";
 
-    // View that makes latest message read flag available with rest of conversation data.
-    private static final String CONVERSATION_LIST_VIEW_SQL = "CREATE VIEW " +
-            CONVERSATION_LIST_VIEW + " AS SELECT "
+    // Select that makes latest message read flag available with rest of conversation data.
+    private static final String CONVERSATION_LIST_SELECT_SQL = "SELECT "
             + CONVERSATION_LIST_VIEW_PROJECTION + ", "
             // Snippet not part of the base projection shared with search view
             + DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns.SNIPPET_TEXT
             + " as " + ConversationListViewColumns.SNIPPET_TEXT + ", "
             + DatabaseHelper.CONVERSATIONS_TABLE + '.' + ConversationColumns.SUBJECT_TEXT
-            + " as " + ConversationListViewColumns.SUBJECT_TEXT + " "
+            + " as " + ConversationListViewColumns.SUBJECT_TEXT + ", "
+            // Lets sender name changes be applied to the conversation list table
+            + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.SENDER_PARTICIPANT_ID
+            + " as " + ConversationListViewColumns.SNIPPET_SENDER_ID + " "
             + " FROM " + DatabaseHelper.CONVERSATIONS_TABLE
             + " LEFT JOIN " + DatabaseHelper.MESSAGES_TABLE + " ON ("
             + DatabaseHelper.CONVERSATIONS_TABLE + '.' +  ConversationColumns.LATEST_MESSAGE_ID
             + '=' + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID + ") "
-            + JOIN_PARTICIPANTS
-            + "ORDER BY " + DatabaseHelper.CONVERSATIONS_TABLE + '.'
-            + ConversationColumns.SORT_TIMESTAMP + " DESC";
+            + JOIN_PARTICIPANTS;
 
     public static class ConversationListViewColumns implements BaseColumns {
         public static final String _ID = ConversationColumns._ID;
@@ -381,6 +468,7 @@ public class ConversationListItemData {
         static final String SNIPPET_SENDER_FIRST_NAME = "snippet_sender_first_name";
         static final String SNIPPET_SENDER_DISPLAY_DESTINATION =
                 "snippet_sender_display_destination";
+        static final String SNIPPET_SENDER_ID = "snippet_sender_id";
         static final String IS_ENTERPRISE = ConversationColumns.IS_ENTERPRISE;
     }
 
@@ -466,7 +554,7 @@ public class ConversationListItemData {
         ConversationListItemData conversation = null;
 
         // Look for an existing conversation in the db with this conversation id
-        try (Cursor cursor = dbWrapper.query(getConversationListView(),
+        try (Cursor cursor = dbWrapper.query(getConversationListTable(),
                 PROJECTION,
                 ConversationColumns._ID + "=?",
                 new String[]{conversationId},
@@ -619,6 +619,40 @@ public class ConversationMessageData {
                 + CONVERSATION_MESSAGES_QUERY_SQL_GROUP_BY;
     }
 
+    /**
+     * Query for the newest messages of a conversation, as many as the limit. Args are the
+     * conversation id twice and the limit.
+     */
+    public static String getConversationMessagesWindowQuerySql() {
+        return CONVERSATION_MESSAGES_QUERY_SQL
+                + " AND "
+                // Inject the conversation id
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.CONVERSATION_ID + "=?"
+                + " AND "
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns._ID + " IN ("
+                + CONVERSATION_MESSAGES_WINDOW_IDS_QUERY_SQL + "))"
+                + CONVERSATION_MESSAGES_WINDOW_QUERY_SQL_GROUP_BY;
+    }
+
+    /**
+     * Query for the messages of a conversation from the given oldest message on, keyed on
+     * (received timestamp, id) so that the window stays put as messages arrive or change. Args
+     * are the conversation id, the received timestamp of the oldest message twice and its id.
+     */
+    public static String getConversationMessagesAnchoredQuerySql() {
+        return CONVERSATION_MESSAGES_QUERY_SQL
+                + " AND "
+                // Inject the conversation id
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.CONVERSATION_ID + "=?"
+                + " AND ("
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.RECEIVED_TIMESTAMP + ">?"
+                + " OR ("
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns.RECEIVED_TIMESTAMP + "=?"
+                + " AND "
+                + DatabaseHelper.MESSAGES_TABLE + "." + MessageColumns._ID + ">=?)))"
+                + CONVERSATION_MESSAGES_WINDOW_QUERY_SQL_GROUP_BY;
+    }
+
     static String getConversationMessageIdsQuerySql() {
         return CONVERSATION_MESSAGES_IDS_QUERY_SQL
                 + " AND "
@@ -793,6 +827,22 @@ public class ConversationMessageData {
           + " ORDER BY "
           + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.RECEIVED_TIMESTAMP + " DESC";
 
+    // Newest messages of a conversation, limited before the join with parts and participants
+    private static final String CONVERSATION_MESSAGES_WINDOW_IDS_QUERY_SQL = "SELECT "
+            + MessageColumns._ID + " FROM " + DatabaseHelper.MESSAGES_TABLE
+            + " WHERE " + MessageColumns.CONVERSATION_ID + "=?"
+            + " AND " + MessageColumns.STATUS + "<>" + MessageData.BUGLE_STATUS_OUTGOING_DRAFT
+            + " ORDER BY " + MessageColumns.RECEIVED_TIMESTAMP + " DESC, "
+            + MessageColumns._ID + " DESC LIMIT ?";
+
+    // Windows are ordered by id too so that messages received in the same millisecond keep the
+    // same order as the key of the window.
+    private static final String CONVERSATION_MESSAGES_WINDOW_QUERY_SQL_GROUP_BY =
+            " GROUP BY " + DatabaseHelper.PARTS_TABLE + '.' + PartColumns.MESSAGE_ID
+          + " ORDER BY "
+          + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns.RECEIVED_TIMESTAMP + " DESC, "
+          + DatabaseHelper.MESSAGES_TABLE + '.' + MessageColumns._ID + " DESC";
+
     private static final String NOTIFICATION_QUERY_SQL_GROUP_BY =
             " GROUP BY " + DatabaseHelper.PARTS_TABLE + '.' + PartColumns.MESSAGE_ID
           + " ORDER BY "
@@ -268,8 +268,7 @@ public class MessagePartData implements Parcelable {
      */
     public SQLiteStatement getInsertStatement(final DatabaseWrapper db,
                                               final String conversationId) {
-        final SQLiteStatement insert = db.getStatementInTransaction(
-                DatabaseWrapper.INDEX_INSERT_MESSAGE_PART, INSERT_MESSAGE_PART_SQL);
+        final SQLiteStatement insert = db.getStatementInTransaction(INSERT_MESSAGE_PART_SQL);
         insert.clearBindings();
         insert.bindString(INDEX_MESSAGE_ID, mMessageId);
         if (mText != null) {
@@ -36,6 +36,8 @@ import android.provider.Telephony.Threads;
 import android.telephony.SmsMessage;
 import android.text.TextUtils;
 
+import androidx.collection.LongSparseArray;
+
 import com.android.messaging.Factory;
 import com.android.messaging.R;
 import com.android.messaging.datamodel.MediaScratchFileProvider;
@@ -756,6 +758,76 @@ public class MmsUtils {
     private static final Uri SINGLE_CANONICAL_ADDRESS_URI =
             Uri.parse("content://mms-sms/canonical-address");
 
+    private static final Uri ALL_CANONICAL_ADDRESSES_URI =
+            Uri.parse("content://mms-sms/canonical-addresses");
+
+    private static final String[] CANONICAL_ADDRESSES_PROJECTION = {
+        Telephony.CanonicalAddressesColumns._ID,
+        Telephony.CanonicalAddressesColumns.ADDRESS
+    };
+
+    /**
+     * Load the recipients of the most recently active threads in bulk, using one query over the
+     * threads and one over the canonical addresses rather than queries for each thread
+     *
+     * @param maxThreads The maximum number of threads to load
+     * @return The recipients by thread id, only for threads whose addresses were all found
+     */
+    public static LongSparseArray<List<String>> getRecipientsOfRecentThreads(
+            final int maxThreads) {
+        final LongSparseArray<List<String>> recipientsByThread = new LongSparseArray<>();
+        final Context context = Factory.get().getApplicationContext();
+        final ContentResolver cr = context.getContentResolver();
+        final LongSparseArray<String> addresses = new LongSparseArray<>();
+        try (Cursor cursor = cr.query(ALL_CANONICAL_ADDRESSES_URI,
+                CANONICAL_ADDRESSES_PROJECTION, null, null, null)) {
+            if (cursor == null) {
+                return recipientsByThread;
+            }
+            while (cursor.moveToNext()) {
+                addresses.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } catch (final Exception e) {
+            LogUtil.e(TAG, "MmsUtils.getRecipientsOfRecentThreads: addresses query failed", e);
+            return recipientsByThread;
+        }
+
+        try (Cursor thread = cr.query(ALL_THREADS_URI, RECIPIENTS_PROJECTION, null, null,
+                Threads.DATE + " DESC")) {
+            if (thread == null) {
+                return recipientsByThread;
+            }
+            while (thread.moveToNext() && recipientsByThread.size() < maxThreads) {
+                final String spaceSepIds = thread.getString(RECIPIENT_IDS);
+                if (TextUtils.isEmpty(spaceSepIds)) {
+                    continue;
+                }
+                final List<String> numbers = new ArrayList<>();
+                for (final String id : spaceSepIds.split(" ")) {
+                    final String number;
+                    try {
+                        number = addresses.get(Long.parseLong(id));
+                    } catch (final NumberFormatException ex) {
+                        numbers.clear();
+                        break;
+                    }
+                    if (TextUtils.isEmpty(number)) {
+                        // Leave it to getRecipientsByThread to deal with
+                        numbers.clear();
+                        break;
+                    }
+                    numbers.add(number);
+                }
+                if (!numbers.isEmpty()) {
+                    recipientsByThread.put(thread.getLong(0), numbers);
+                }
+            }
+        } catch (final Exception e) {
+            LogUtil.e(TAG, "MmsUtils.getRecipientsOfRecentThreads: threads query failed", e);
+        }
+        return recipientsByThread;
+    }
+
     private static List<String> getAddresses(final Context context, final String spaceSepIds) {
         final List<String> numbers = new ArrayList<>();
         final String[] ids = spaceSepIds.split(" ");
@@ -1446,6 +1518,57 @@ public class MmsUtils {
 
     public static final Uri MMS_PART_CONTENT_URI = Uri.parse("content://mms/part");
 
+    /**
+     * Load the parts (except SMIL) of a batch of MMS messages from telephony, querying the parts
+     * of up to MAX_IDS_PER_QUERY messages at a time rather than once per message
+     *
+     * @param mmses The MMS messages keyed by pdu row id, which the parts are added to
+     * @param loadMedia Whether to load the text and media dimensions of the parts
+     */
+    public static void loadMmsParts(final LongSparseArray<DatabaseMessages.MmsMessage> mmses,
+            final boolean loadMedia) {
+        final Context context = Factory.get().getApplicationContext();
+        final int totalIds = mmses.size();
+        for (int start = 0; start < totalIds; start += MAX_IDS_PER_QUERY) {
+            final int end = Math.min(start + MAX_IDS_PER_QUERY, totalIds); //excluding
+            final int count = end - start;
+            // TODO: we may need to load SMIL part in the future.
+            final String batchSelection = String.format(
+                    Locale.US,
+                    "%s != '%s' AND %s IN %s",
+                    Mms.Part.CONTENT_TYPE,
+                    ContentType.APP_SMIL,
+                    Mms.Part.MSG_ID,
+                    getSqlInOperand(count));
+            final String[] batchSelectionArgs = new String[count];
+            for (int i = 0; i < count; i++) {
+                batchSelectionArgs[i] = Long.toString(mmses.keyAt(start + i));
+            }
+            final Cursor cursor = SqliteWrapper.query(
+                    context,
+                    context.getContentResolver(),
+                    MMS_PART_CONTENT_URI,
+                    DatabaseMessages.MmsPart.PROJECTION,
+                    batchSelection,
+                    batchSelectionArgs,
+                    null/*sortOrder*/);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        final DatabaseMessages.MmsPart part =
+                                DatabaseMessages.MmsPart.get(cursor, loadMedia);
+                        final DatabaseMessages.MmsMessage mms = mmses.get(part.mMessageId);
+                        if (mms != null) {
+                            mms.addPart(part);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+    }
+
     /**
      * Load MMS from telephony
      *
@@ -1477,33 +1600,12 @@ public class MmsUtils {
             return null;
         }
         // Load parts except SMIL
-        // TODO: we may need to load SMIL part in the future.
-        final long rowId = MmsUtils.parseRowIdFromMessageUri(mmsUri);
-        final String selection = String.format(
-                Locale.US,
-                "%s != '%s' AND %s = ?",
-                Mms.Part.CONTENT_TYPE,
-                ContentType.APP_SMIL,
-                Mms.Part.MSG_ID);
-        cursor = null;
+        final LongSparseArray<DatabaseMessages.MmsMessage> mmses = new LongSparseArray<>(1);
+        mmses.put(MmsUtils.parseRowIdFromMessageUri(mmsUri), mms);
         try {
-            cursor = SqliteWrapper.query(context, resolver,
-                    MMS_PART_CONTENT_URI,
-                    DatabaseMessages.MmsPart.PROJECTION,
-                    selection,
-                    new String[] { Long.toString(rowId) },
-                    null/*sortOrder*/);
-            if (cursor != null) {
-                while (cursor.moveToNext()) {
-                    mms.addPart(DatabaseMessages.MmsPart.get(cursor, true/*loadMedia*/));
-                }
-            }
+            loadMmsParts(mmses, true/*loadMedia*/);
         } catch (final SQLiteException e) {
             LogUtil.e(TAG, "MmsLoader: query parts failure: " + e, e);
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
         }
         return mms;
     }
@@ -109,7 +109,7 @@ public abstract class UIIntents {
 
     public static final String UI_INTENT_EXTRA_SELF_ID = "self_id";
 
-    // Message position to scroll to.
+    // Message position to scroll to, counted from the newest message.
     public static final String UI_INTENT_EXTRA_MESSAGE_POSITION = "message_position";
 
     /**
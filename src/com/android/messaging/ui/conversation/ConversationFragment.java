@@ -139,6 +139,8 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
 
     static final int REQUEST_CHOOSE_ATTACHMENTS = 2;
     private static final int JUMP_SCROLL_THRESHOLD = 15;
+    // Older messages are loaded once the user scrolls within this many messages of the oldest
+    private static final int LOAD_OLDER_MESSAGES_THRESHOLD = 30;
     // We animate the message from draft to message list, if we the message doesn't show up in the
     // list within this time limit, then we just do a fade in animation instead
     public static final int MESSAGE_ANIMATION_MAX_WAIT = 500;
@@ -266,6 +268,14 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
                     mConversationComposeDivider.animate().alpha(isScrolledToBottom() ? 0 : 1);
                     mWasScrolledToBottom = isScrolledToBottom();
                 }
+                if (dy <= 0 && mBinding.isBound()) {
+                    final int firstVisibleItemPosition = ((LinearLayoutManager) mRecyclerView
+                            .getLayoutManager()).findFirstVisibleItemPosition();
+                    if (firstVisibleItemPosition != RecyclerView.NO_POSITION
+                            && firstVisibleItemPosition < LOAD_OLDER_MESSAGES_THRESHOLD) {
+                        mBinding.getData().loadOlderMessages();
+                    }
+                }
             }
     };
 
@@ -900,7 +910,10 @@ public class ConversationFragment extends Fragment implements ConversationDataLi
             mHost.onConversationMessagesUpdated(cursor.getCount());
 
             // Are we coming from a widget click where we're told to scroll to a particular item?
-            final int scrollToPos = getScrollToMessagePosition();
+            // The widget counts positions from the newest message.
+            final int scrollToPosFromBottom = getScrollToMessagePosition();
+            final int scrollToPos = scrollToPosFromBottom < 0 ? -1
+                    : Math.max(cursor.getCount() - 1 - scrollToPosFromBottom, 0);
             if (scrollToPos >= 0) {
                 if (LogUtil.isLoggable(LogUtil.BUGLE_TAG, LogUtil.VERBOSE)) {
                     LogUtil.v(LogUtil.BUGLE_TAG, "onConversationMessagesCursorUpdated " +
@@ -44,6 +44,13 @@ public final class BugleGservicesKeys {
      */
     public static final long MESSAGE_DOWNLOAD_TIMEOUT_MS_DEFAULT = 20 * 60 * 1000L;
 
+    /**
+     * Max number of outgoing messages per subscription that are handed to the background
+     * worker at the same time when draining pending messages. Messages in the same
+     * conversation are still sent one at a time, in order.
+     */
+    public static final int MAX_CONCURRENT_SENDS_PER_SUBSCRIPTION_DEFAULT = 3;
+
     /**
      * Time in milliseconds for SMS send timeout
      */
@@ -73,6 +80,13 @@ public final class BugleGservicesKeys {
     public static final int SMS_SYNC_BATCH_MAX_MESSAGES_TO_SCAN_DEFAULT =
             SMS_SYNC_BATCH_SIZE_MAX_DEFAULT * 4;
 
+    /**
+     * Number of threads whose recipients and conversation are cached during sync. The
+     * recipients of this many of the most recently active threads are loaded in bulk when a
+     * sync starts.
+     */
+    public static final int SMS_SYNC_THREAD_CACHE_SIZE_DEFAULT = 5000;
+
     /**
      * Time in ms for sync to backoff from "now" to the latest message that will be sync'd.
      *
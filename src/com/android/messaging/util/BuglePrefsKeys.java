@@ -48,6 +48,20 @@ public final class BuglePrefsKeys {
     public static final long LAST_FULL_SYNC_TIME_DEFAULT
             = -1;
 
+    /**
+     * Checkpoint of a sync in progress, letting it resume where it left off if the process
+     * dies: its lower bound, the upper bound of its next batch (-1 if none in progress) and
+     * its start timestamp (in millis)
+     */
+    public static final String SYNC_CHECKPOINT_LOWER_BOUND
+            = "sync_checkpoint_lower_bound_millis";
+    public static final String SYNC_CHECKPOINT_UPPER_BOUND
+            = "sync_checkpoint_upper_bound_millis";
+    public static final String SYNC_CHECKPOINT_START_TIME
+            = "sync_checkpoint_start_time_millis";
+    public static final long SYNC_CHECKPOINT_UPPER_BOUND_DEFAULT
+            = -1;
+
     /**
      * Timestamp of the message for which we last did a message notification.
      */
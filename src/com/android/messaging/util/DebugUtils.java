@@ -29,6 +29,15 @@ import java.io.IOException;
 public class DebugUtils {
     private static final String TAG = "bugle.util.DebugUtils";
 
+    /**
+     * Whether costly debug instrumentation is turned on. Enable it with
+     *  adb shell setprop log.tag.MessagingAppProf DEBUG
+     * and restart the app.
+     */
+    public static boolean isDebugEnabled() {
+        return LogUtil.isLoggable(LogUtil.PROFILE_TAG, LogUtil.DEBUG);
+    }
+
     public static File getDebugFile(final String fileName, final boolean create) {
         final File dir = getDebugFilesDir();
         final File file = new File(dir, fileName);
@@ -105,7 +105,9 @@ public class WidgetConversationService extends RemoteViewsService {
                 LogUtil.w(TAG, "doQuery no conversation id");
                 return null;
             }
-            final Uri uri = MessagingContentProvider.buildConversationMessagesUri(mConversationId);
+            // One more message than shown tells whether to show "View more messages"
+            final Uri uri = MessagingContentProvider.buildConversationMessagesUri(mConversationId,
+                    MAX_ITEMS_TO_SHOW + 1);
             if (uri != null) {
                 LogUtil.w(TAG, "doQuery uri: " + uri);
             }
@@ -162,20 +164,17 @@ public class WidgetConversationService extends RemoteViewsService {
                 int attachmentStringId = 0;
                 remoteViews.setViewVisibility(R.id.attachmentFrame, View.GONE);
 
-                int scrollToPosition = originalPosition;
+                // The conversation only loads its newest messages, so the position to scroll to
+                // is counted from the newest message, which is the position in the DESC cursor
                 final int cursorCount = mCursor.getCount();
-                if (cursorCount > MAX_ITEMS_TO_SHOW) {
-                    scrollToPosition += cursorCount - MAX_ITEMS_TO_SHOW;
-                }
                 if (LogUtil.isLoggable(TAG, LogUtil.VERBOSE)) {
                     LogUtil.v(TAG, "getViewAt position: " + originalPosition +
                             " computed position: " + position +
-                            " scrollToPosition: " + scrollToPosition +
                             " cursorCount: " + cursorCount +
                             " MAX_ITEMS_TO_SHOW: " + MAX_ITEMS_TO_SHOW);
                 }
 
-                intent.putExtra(UIIntents.UI_INTENT_EXTRA_MESSAGE_POSITION, scrollToPosition);
+                intent.putExtra(UIIntents.UI_INTENT_EXTRA_MESSAGE_POSITION, position);
                 if (message.hasAttachments()) {
                     final List<MessagePartData> attachments = message.getAttachments();
                     for (MessagePartData part : attachments) {